@@ -0,0 +1,239 @@
+package com.sandy.jeecoach.util;
+
+import java.io.File ;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Random ;
+import java.util.concurrent.CountDownLatch ;
+import java.util.concurrent.atomic.AtomicBoolean ;
+import java.util.concurrent.atomic.AtomicLong ;
+
+/**
+ * Runs readers and writers against a catalog at the same time and reports
+ * the throughput of each. Readers look up random QRefs and once in a while
+ * scan a chapter. Writers rename random questions back and forth.
+ *
+ * The ConcurrentCatalog is compared with a synchronized list, which is how
+ * the catalog was held before.
+ *
+ * Usage: CatalogContentionBenchmark [numReaders] [numWriters] [seconds]
+ */
+public class CatalogContentionBenchmark {
+
+    private static final int NUM_CHAPTERS  = 30 ;
+    private static final int NUM_QUESTIONS = 200 ;
+    private static final int RENAME_OFFSET = 100000 ;
+
+    private static final String[] SECTIONS = { "VSAT", "SAT", "ETQ" } ;
+    private static final String[] BOOKS    = { "P_9_PF", "C_9_PF", "M_9_PF",
+                                               "P_10_PF", "M_10_MR" } ;
+
+    private static interface Catalog {
+
+        public int lookup( String qRef ) ;
+
+        public int scanChapter( String chapterQRef ) ;
+
+        public void rename( JEEQuestionImage oldImg, JEEQuestionImage newImg ) ;
+    }
+
+    private static class LockFreeCatalog implements Catalog {
+
+        private ConcurrentCatalog catalog = new ConcurrentCatalog() ;
+
+        LockFreeCatalog( List<JEEQuestionImage> images ) {
+            catalog.addAll( images ) ;
+        }
+
+        public int lookup( String qRef ) {
+            return catalog.getByQRef( qRef ).size() ;
+        }
+
+        public int scanChapter( String chapterQRef ) {
+            int count = 0 ;
+            for( JEEQuestionImage img : catalog.getChapter( chapterQRef ) ) {
+                count += img.getPartNumber() ;
+            }
+            return count ;
+        }
+
+        public void rename( JEEQuestionImage oldImg, JEEQuestionImage newImg ) {
+            catalog.rename( oldImg, newImg ) ;
+        }
+    }
+
+    private static class SynchronizedListCatalog implements Catalog {
+
+        private List<JEEQuestionImage> catalog =
+                Collections.synchronizedList( new ArrayList<JEEQuestionImage>() ) ;
+
+        SynchronizedListCatalog( List<JEEQuestionImage> images ) {
+            catalog.addAll( images ) ;
+        }
+
+        public int lookup( String qRef ) {
+            int count = 0 ;
+            synchronized( catalog ) {
+                for( JEEQuestionImage img : catalog ) {
+                    if( img.getQRef().equals( qRef ) ) {
+                        count++ ;
+                    }
+                }
+            }
+            return count ;
+        }
+
+        public int scanChapter( String chapterQRef ) {
+            int count = 0 ;
+            synchronized( catalog ) {
+                for( JEEQuestionImage img : catalog ) {
+                    if( img.getChapterQRef().equals( chapterQRef ) ) {
+                        count += img.getPartNumber() ;
+                    }
+                }
+            }
+            return count ;
+        }
+
+        public void rename( JEEQuestionImage oldImg, JEEQuestionImage newImg ) {
+            String oldName = oldImg.getImgFile().getName() ;
+            synchronized( catalog ) {
+                Iterator<JEEQuestionImage> iter = catalog.iterator() ;
+                while( iter.hasNext() ) {
+                    if( iter.next().getImgFile().getName().equals( oldName ) ) {
+                        iter.remove() ;
+                        break ;
+                    }
+                }
+                catalog.add( newImg ) ;
+            }
+        }
+    }
+
+    public static void main( String[] args ) throws Exception {
+
+        int numReaders = args.length > 0 ? Integer.parseInt( args[0] ) : 4 ;
+        int numWriters = args.length > 1 ? Integer.parseInt( args[1] ) : 2 ;
+        int seconds    = args.length > 2 ? Integer.parseInt( args[2] ) : 5 ;
+
+        List<JEEQuestionImage> images = buildImages() ;
+        System.out.println( images.size() + " images, " + numReaders +
+                            " readers, " + numWriters + " writers, " +
+                            seconds + "s per run" ) ;
+
+        run( "ConcurrentCatalog", new LockFreeCatalog( images ), images,
+             numReaders, numWriters, seconds ) ;
+        run( "Synchronized list", new SynchronizedListCatalog( images ), images,
+             numReaders, numWriters, seconds ) ;
+    }
+
+    private static List<JEEQuestionImage> buildImages() {
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        for( String book : BOOKS ) {
+            for( int chapter=1; chapter<=NUM_CHAPTERS; chapter++ ) {
+                for( int q=1; q<=NUM_QUESTIONS; q++ ) {
+                    images.add( new JEEQuestionImage(
+                                    new File( getFileName( book, chapter, q ) ) ) ) ;
+                }
+            }
+        }
+        return images ;
+    }
+
+    private static String getFileName( String book, int chapter, int q ) {
+        String name = book + "_" + chapter + "_SCA_" ;
+        if( book.endsWith( "_PF" ) ) {
+            name += SECTIONS[q % SECTIONS.length] + "_" ;
+        }
+        return name + q + ".png" ;
+    }
+
+    private static void run( String name, final Catalog catalog,
+                             final List<JEEQuestionImage> images,
+                             int numReaders, final int numWriters,
+                             int seconds ) throws InterruptedException {
+
+        final AtomicBoolean stop = new AtomicBoolean( false ) ;
+        final AtomicLong numReads  = new AtomicLong() ;
+        final AtomicLong numWrites = new AtomicLong() ;
+        final CountDownLatch done = new CountDownLatch( numReaders + numWriters ) ;
+
+        final List<String> qRefs = new ArrayList<String>() ;
+        for( JEEQuestionImage img : images ) {
+            qRefs.add( img.getQRef() ) ;
+        }
+
+        for( int r=0; r<numReaders; r++ ) {
+            final Random random = new Random( r ) ;
+            new Thread( new Runnable() {
+                public void run() {
+                    long count = 0 ;
+                    while( !stop.get() ) {
+                        int index = random.nextInt( images.size() ) ;
+                        if( count % 100 == 0 ) {
+                            catalog.scanChapter( images.get( index ).getChapterQRef() ) ;
+                        }
+                        else {
+                            catalog.lookup( qRefs.get( index ) ) ;
+                        }
+                        count++ ;
+                    }
+                    numReads.addAndGet( count ) ;
+                    done.countDown() ;
+                }
+            } ).start() ;
+        }
+
+        // Each writer owns the images at indexes congruent to its number, so
+        // writers never rename the same image.
+        for( int w=0; w<numWriters; w++ ) {
+            final int writerNum = w ;
+            final Random random = new Random( 1000 + w ) ;
+            new Thread( new Runnable() {
+                public void run() {
+                    List<JEEQuestionImage> owned = new ArrayList<JEEQuestionImage>() ;
+                    for( int i=writerNum; i<images.size(); i+=numWriters ) {
+                        owned.add( images.get( i ) ) ;
+                    }
+
+                    long count = 0 ;
+                    while( !stop.get() ) {
+                        int index = random.nextInt( owned.size() ) ;
+                        JEEQuestionImage oldImg = owned.get( index ) ;
+                        JEEQuestionImage newImg = renamed( oldImg ) ;
+                        catalog.rename( oldImg, newImg ) ;
+                        owned.set( index, newImg ) ;
+                        count++ ;
+                    }
+                    numWrites.addAndGet( count ) ;
+                    done.countDown() ;
+                }
+            } ).start() ;
+        }
+
+        Thread.sleep( seconds*1000L ) ;
+        stop.set( true ) ;
+        done.await() ;
+
+        System.out.println( String.format( "%-20s reads/sec = %10d, writes/sec = %8d",
+                            name, numReads.get()/seconds, numWrites.get()/seconds ) ) ;
+    }
+
+    // Moves the question number out of the catalog range and back.
+    private static JEEQuestionImage renamed( JEEQuestionImage img ) {
+
+        QID qId = img.getQId() ;
+        int qNum = ( qId instanceof PearsonQID ) ?
+                   (( PearsonQID )qId).getQuestionNumber() :
+                   (( MTGReasoningQID )qId).getQuestionNumber() ;
+
+        int newQNum = ( qNum > RENAME_OFFSET ) ? qNum - RENAME_OFFSET :
+                                                 qNum + RENAME_OFFSET ;
+        String fileName = img.getFileName().replace( "_" + qNum + ".png",
+                                                        "_" + newQNum + ".png" ) ;
+        return new JEEQuestionImage( new File( fileName ) ) ;
+    }
+}
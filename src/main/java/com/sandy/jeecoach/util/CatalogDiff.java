@@ -0,0 +1,216 @@
+package com.sandy.jeecoach.util;
+
+import java.io.File ;
+import java.io.IOException ;
+import java.util.ArrayList ;
+import java.util.HashMap ;
+import java.util.HashSet ;
+import java.util.Iterator ;
+import java.util.LinkedList ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Set ;
+
+import lombok.Getter ;
+
+/**
+ * Compares two catalog snapshots and reports the images which have been
+ * added, removed or (probably) renamed between them.
+ *
+ * Both snapshots are expected to be streams of entries sorted in catalog
+ * order. The streams are merge joined in a single pass, so the time taken
+ * is proportional to the sum of the snapshot sizes.
+ *
+ * The changes are reported per chapter (QRef prefix of the form
+ * subject/standard/book/chapter/). Since catalog order sorts on the chapter
+ * first, the chapters appear as contiguous runs in both streams and only
+ * the changes of the chapter being processed are held in memory. A removed
+ * entry and an added entry of the same chapter with the same content (or
+ * size, if checksums are not available) are reported as a rename. This
+ * includes an image moved to another directory under the catalog root.
+ */
+public class CatalogDiff {
+
+    public static interface Listener {
+
+        public void groupStarted( String qRefPrefix ) ;
+
+        public void renamed( Rename rename ) ;
+
+        public void removed( CatalogEntry entry ) ;
+
+        public void added( CatalogEntry entry ) ;
+
+        public void groupEnded( String qRefPrefix ) ;
+    }
+
+    public static class Rename {
+
+        @Getter private CatalogEntry from = null ;
+        @Getter private CatalogEntry to   = null ;
+
+        Rename( CatalogEntry from, CatalogEntry to ) {
+            this.from = from ;
+            this.to   = to ;
+        }
+
+        @Override
+        public String toString() {
+            return from.getPath() + " -> " + to.getPath() ;
+        }
+    }
+
+    private Listener listener = null ;
+
+    private String curPrefix = null ;
+    private List<CatalogEntry> removedInGroup = new ArrayList<CatalogEntry>() ;
+    private List<CatalogEntry> addedInGroup   = new ArrayList<CatalogEntry>() ;
+
+    public CatalogDiff( Listener listener ) {
+        this.listener = listener ;
+    }
+
+    public void diff( File oldIndexFile, File newIndexFile )
+        throws IOException {
+
+        try( CatalogIndex.Reader oldEntries = CatalogIndex.open( oldIndexFile ) ;
+             CatalogIndex.Reader newEntries = CatalogIndex.open( newIndexFile ) ) {
+            diff( oldEntries, newEntries ) ;
+        }
+    }
+
+    public void diff( Iterator<CatalogEntry> oldEntries,
+                      Iterator<CatalogEntry> newEntries ) {
+
+        curPrefix = null ;
+        removedInGroup.clear() ;
+        addedInGroup.clear() ;
+
+        CatalogEntry oldEntry = next( oldEntries, null ) ;
+        CatalogEntry newEntry = next( newEntries, null ) ;
+
+        while( oldEntry != null || newEntry != null ) {
+
+            int cmp = 0 ;
+            if( oldEntry == null ) {
+                cmp = 1 ;
+            }
+            else if( newEntry == null ) {
+                cmp = -1 ;
+            }
+            else {
+                cmp = oldEntry.compareTo( newEntry ) ;
+            }
+
+            if( cmp < 0 ) {
+                enterGroup( oldEntry ) ;
+                removedInGroup.add( oldEntry ) ;
+                oldEntry = next( oldEntries, oldEntry ) ;
+            }
+            else if( cmp > 0 ) {
+                enterGroup( newEntry ) ;
+                addedInGroup.add( newEntry ) ;
+                newEntry = next( newEntries, newEntry ) ;
+            }
+            else {
+                enterGroup( oldEntry ) ;
+                oldEntry = next( oldEntries, oldEntry ) ;
+                newEntry = next( newEntries, newEntry ) ;
+            }
+        }
+        flushGroup() ;
+    }
+
+    private CatalogEntry next( Iterator<CatalogEntry> entries,
+                               CatalogEntry lastEntry ) {
+        if( !entries.hasNext() ) {
+            return null ;
+        }
+
+        CatalogEntry entry = entries.next() ;
+        if( lastEntry != null && lastEntry.compareTo( entry ) >= 0 ) {
+            throw new IllegalArgumentException(
+                    "Catalog not sorted. " + entry.getPath() +
+                    " found after " + lastEntry.getPath() ) ;
+        }
+        return entry ;
+    }
+
+    private void enterGroup( CatalogEntry entry ) {
+        String prefix = entry.getImage().getChapterQRef() ;
+        if( !prefix.equals( curPrefix ) ) {
+            flushGroup() ;
+            curPrefix = prefix ;
+        }
+    }
+
+    private void flushGroup() {
+
+        if( removedInGroup.isEmpty() && addedInGroup.isEmpty() ) {
+            return ;
+        }
+
+        listener.groupStarted( curPrefix ) ;
+
+        // Added entries indexed by size, the renamed ones are taken out
+        // as they get matched.
+        Map<Long, LinkedList<CatalogEntry>> addedBySize =
+                                new HashMap<Long, LinkedList<CatalogEntry>>() ;
+        for( CatalogEntry entry : addedInGroup ) {
+            LinkedList<CatalogEntry> sameSize = addedBySize.get( entry.getSize() ) ;
+            if( sameSize == null ) {
+                sameSize = new LinkedList<CatalogEntry>() ;
+                addedBySize.put( entry.getSize(), sameSize ) ;
+            }
+            sameSize.add( entry ) ;
+        }
+
+        List<CatalogEntry> removed = new ArrayList<CatalogEntry>() ;
+        Set<CatalogEntry> renamedTo = new HashSet<CatalogEntry>() ;
+        for( CatalogEntry entry : removedInGroup ) {
+            CatalogEntry match = takeMatch( addedBySize.get( entry.getSize() ),
+                                            entry ) ;
+            if( match != null ) {
+                renamedTo.add( match ) ;
+                listener.renamed( new Rename( entry, match ) ) ;
+            }
+            else {
+                removed.add( entry ) ;
+            }
+        }
+
+        for( CatalogEntry entry : removed ) {
+            listener.removed( entry ) ;
+        }
+
+        for( CatalogEntry entry : addedInGroup ) {
+            if( !renamedTo.contains( entry ) ) {
+                listener.added( entry ) ;
+            }
+        }
+
+        listener.groupEnded( curPrefix ) ;
+
+        removedInGroup.clear() ;
+        addedInGroup.clear() ;
+    }
+
+    // Candidates are the added entries of the same size. A candidate matches
+    // if the checksums agree or if either side does not have a checksum.
+    private CatalogEntry takeMatch( LinkedList<CatalogEntry> candidates,
+                                    CatalogEntry removedEntry ) {
+        if( candidates == null ) {
+            return null ;
+        }
+
+        Iterator<CatalogEntry> iter = candidates.iterator() ;
+        while( iter.hasNext() ) {
+            CatalogEntry candidate = iter.next() ;
+            if( candidate.isProbableCopyOf( removedEntry ) ) {
+                iter.remove() ;
+                return candidate ;
+            }
+        }
+        return null ;
+    }
+}
@@ -0,0 +1,99 @@
+package com.sandy.jeecoach.util;
+
+import java.io.File ;
+import java.io.IOException ;
+import java.util.ArrayList ;
+import java.util.Collection ;
+import java.util.LinkedHashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+import com.sandy.jeecoach.util.CatalogDiff.Rename ;
+
+import lombok.Getter ;
+
+/**
+ * A CatalogDiff listener which collects the changes, grouped by the chapter
+ * QRef prefix. The groups are kept in catalog order.
+ */
+public class CatalogDiffReport implements CatalogDiff.Listener {
+
+    public static class Group {
+
+        @Getter private String qRefPrefix = null ;
+        @Getter private List<Rename>       renamed = new ArrayList<Rename>() ;
+        @Getter private List<CatalogEntry> removed = new ArrayList<CatalogEntry>() ;
+        @Getter private List<CatalogEntry> added   = new ArrayList<CatalogEntry>() ;
+
+        Group( String qRefPrefix ) {
+            this.qRefPrefix = qRefPrefix ;
+        }
+    }
+
+    private Map<String, Group> groups = new LinkedHashMap<String, Group>() ;
+    private Group curGroup = null ;
+
+    public Collection<Group> getGroups() {
+        return groups.values() ;
+    }
+
+    public Group getGroup( String qRefPrefix ) {
+        return groups.get( qRefPrefix ) ;
+    }
+
+    public boolean isEmpty() {
+        return groups.isEmpty() ;
+    }
+
+    @Override
+    public void groupStarted( String qRefPrefix ) {
+        curGroup = new Group( qRefPrefix ) ;
+        groups.put( qRefPrefix, curGroup ) ;
+    }
+
+    @Override
+    public void renamed( Rename rename ) {
+        curGroup.renamed.add( rename ) ;
+    }
+
+    @Override
+    public void removed( CatalogEntry entry ) {
+        curGroup.removed.add( entry ) ;
+    }
+
+    @Override
+    public void added( CatalogEntry entry ) {
+        curGroup.added.add( entry ) ;
+    }
+
+    @Override
+    public void groupEnded( String qRefPrefix ) {
+        curGroup = null ;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder() ;
+        for( Group group : groups.values() ) {
+            sb.append( group.qRefPrefix ).append( "\n" ) ;
+            for( Rename rename : group.renamed ) {
+                sb.append( "\t~ " ).append( rename ).append( "\n" ) ;
+            }
+            for( CatalogEntry entry : group.removed ) {
+                sb.append( "\t- " ).append( entry.getPath() ).append( "\n" ) ;
+            }
+            for( CatalogEntry entry : group.added ) {
+                sb.append( "\t+ " ).append( entry.getPath() ).append( "\n" ) ;
+            }
+        }
+        return sb.toString() ;
+    }
+
+    // Usage: CatalogDiffReport <old index file> <new index file>
+    public static void main( String[] args ) throws IOException {
+
+        CatalogDiffReport report = new CatalogDiffReport() ;
+        new CatalogDiff( report ).diff( new File( args[0] ), new File( args[1] ) ) ;
+        System.out.print( report ) ;
+    }
+}
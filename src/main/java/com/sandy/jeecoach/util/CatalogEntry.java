@@ -0,0 +1,117 @@
+package com.sandy.jeecoach.util;
+
+import java.io.File ;
+import java.io.FileInputStream ;
+import java.io.IOException ;
+import java.io.InputStream ;
+import java.util.zip.CRC32 ;
+
+import lombok.Getter ;
+
+/**
+ * A single line of a catalog snapshot - the parsed question image along with
+ * the size of the image file and an optional CRC32 of its content. The
+ * checksum is -1 if it was not computed while taking the snapshot.
+ *
+ * The image file of an entry is its path relative to the catalog root, with
+ * '/' as the separator.
+ *
+ * Index line format: <path>\t<size>\t<checksum>
+ */
+public class CatalogEntry implements Comparable<CatalogEntry> {
+
+    public static final long NO_CHECKSUM = -1 ;
+
+    @Getter private JEEQuestionImage image = null ;
+    @Getter private long size = 0 ;
+    @Getter private long checksum = NO_CHECKSUM ;
+
+    public CatalogEntry( JEEQuestionImage image, long size, long checksum ) {
+        this.image    = image ;
+        this.size     = size ;
+        this.checksum = checksum ;
+    }
+
+    public static CatalogEntry fromFile( File file, boolean computeChecksum )
+        throws IOException {
+        return fromFile( file.getAbsoluteFile().getParentFile(), file,
+                         computeChecksum ) ;
+    }
+
+    public static CatalogEntry fromFile( File rootDir, File file,
+                                         boolean computeChecksum )
+        throws IOException {
+
+        String path = rootDir.getAbsoluteFile().toPath()
+                             .relativize( file.getAbsoluteFile().toPath() )
+                             .toString().replace( File.separatorChar, '/' ) ;
+
+        JEEQuestionImage img = new JEEQuestionImage( new File( path ) ) ;
+        long checksum = computeChecksum ? checksum( file ) : NO_CHECKSUM ;
+        return new CatalogEntry( img, file.length(), checksum ) ;
+    }
+
+    public static CatalogEntry fromIndexLine( String line ) {
+
+        String[] parts = line.split( "\t" ) ;
+        if( parts.length != 3 ) {
+            throw new IllegalArgumentException(
+                    "Invalid catalog index line - " + line ) ;
+        }
+
+        JEEQuestionImage img = new JEEQuestionImage( new File( parts[0] ) ) ;
+        long size     = Long.parseLong( parts[1].trim() ) ;
+        long checksum = Long.parseLong( parts[2].trim() ) ;
+
+        return new CatalogEntry( img, size, checksum ) ;
+    }
+
+    public String toIndexLine() {
+        return getPath() + "\t" + size + "\t" + checksum ;
+    }
+
+    public String getPath() {
+        return image.getImgFile().getPath().replace( File.separatorChar, '/' ) ;
+    }
+
+    public String getFileName() {
+        return image.getImgFile().getName() ;
+    }
+
+    public boolean hasChecksum() {
+        return checksum != NO_CHECKSUM ;
+    }
+
+    // Returns true if the two entries are likely to refer to the same image
+    // content. If both have checksums, they are compared, else the sizes are.
+    public boolean isProbableCopyOf( CatalogEntry entry ) {
+        if( hasChecksum() && entry.hasChecksum() ) {
+            return checksum == entry.checksum && size == entry.size ;
+        }
+        return size == entry.size ;
+    }
+
+    // Entries are in catalog order of their images
+    @Override
+    public int compareTo( CatalogEntry entry ) {
+        return JEEQuestionImage.CATALOG_ORDER.compare( image, entry.image ) ;
+    }
+
+    @Override
+    public String toString() {
+        return toIndexLine() ;
+    }
+
+    private static long checksum( File file ) throws IOException {
+
+        CRC32 crc = new CRC32() ;
+        byte[] buffer = new byte[8192] ;
+        try( InputStream is = new FileInputStream( file ) ) {
+            int numRead = 0 ;
+            while( ( numRead = is.read( buffer ) ) != -1 ) {
+                crc.update( buffer, 0, numRead ) ;
+            }
+        }
+        return crc.getValue() ;
+    }
+}
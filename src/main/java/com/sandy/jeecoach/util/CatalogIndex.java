@@ -0,0 +1,142 @@
+package com.sandy.jeecoach.util;
+
+import java.io.BufferedReader ;
+import java.io.BufferedWriter ;
+import java.io.Closeable ;
+import java.io.File ;
+import java.io.FileInputStream ;
+import java.io.FileOutputStream ;
+import java.io.IOException ;
+import java.io.InputStreamReader ;
+import java.io.OutputStreamWriter ;
+import java.nio.charset.StandardCharsets ;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.NoSuchElementException ;
+
+/**
+ * Reads and writes catalog snapshots. A snapshot is an index file with one
+ * catalog entry per line, sorted in catalog order, so that two snapshots
+ * can be compared by streaming through them (see CatalogDiff).
+ */
+public class CatalogIndex {
+
+    /**
+     * Scans the directory tree for question images and returns the entries
+     * sorted in catalog order. The entries carry the path of the image
+     * relative to the directory. Files whose names can't be parsed as
+     * question images are skipped.
+     */
+    public static List<CatalogEntry> scan( File dir, boolean computeChecksum )
+        throws IOException {
+
+        List<CatalogEntry> entries = new ArrayList<CatalogEntry>() ;
+        scan( dir, dir, computeChecksum, entries ) ;
+        Collections.sort( entries ) ;
+        return entries ;
+    }
+
+    private static void scan( File rootDir, File dir, boolean computeChecksum,
+                              List<CatalogEntry> entries )
+        throws IOException {
+
+        File[] files = dir.listFiles() ;
+        if( files == null ) {
+            throw new IOException( dir + " is not a readable directory." ) ;
+        }
+
+        for( File file : files ) {
+            if( file.isDirectory() ) {
+                scan( rootDir, file, computeChecksum, entries ) ;
+                continue ;
+            }
+            if( !file.isFile() || !file.getName().endsWith( ".png" ) ) {
+                continue ;
+            }
+
+            try {
+                entries.add( CatalogEntry.fromFile( rootDir, file,
+                                                    computeChecksum ) ) ;
+            }
+            catch( IllegalArgumentException e ) {
+                // Not a question image, ignore.
+            }
+        }
+    }
+
+    public static void write( Iterator<CatalogEntry> entries, File indexFile )
+        throws IOException {
+
+        try( BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter( new FileOutputStream( indexFile ),
+                                        StandardCharsets.UTF_8 ) ) ) {
+            while( entries.hasNext() ) {
+                writer.write( entries.next().toIndexLine() ) ;
+                writer.newLine() ;
+            }
+        }
+    }
+
+    public static Reader open( File indexFile ) throws IOException {
+        return new Reader( new BufferedReader(
+                new InputStreamReader( new FileInputStream( indexFile ),
+                                       StandardCharsets.UTF_8 ) ) ) ;
+    }
+
+    /**
+     * Lazily iterates over the entries of an index file. Only the current
+     * line is held in memory.
+     */
+    public static class Reader implements Iterator<CatalogEntry>, Closeable {
+
+        private BufferedReader reader = null ;
+        private String nextLine = null ;
+
+        Reader( BufferedReader reader ) throws IOException {
+            this.reader = reader ;
+            this.nextLine = readNonBlankLine() ;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextLine != null ;
+        }
+
+        @Override
+        public CatalogEntry next() {
+            if( nextLine == null ) {
+                throw new NoSuchElementException() ;
+            }
+
+            CatalogEntry entry = CatalogEntry.fromIndexLine( nextLine ) ;
+            try {
+                nextLine = readNonBlankLine() ;
+            }
+            catch( IOException e ) {
+                throw new IllegalStateException(
+                        "Error reading catalog index.", e ) ;
+            }
+            return entry ;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException() ;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close() ;
+        }
+
+        private String readNonBlankLine() throws IOException {
+            String line = reader.readLine() ;
+            while( line != null && line.trim().isEmpty() ) {
+                line = reader.readLine() ;
+            }
+            return line ;
+        }
+    }
+}
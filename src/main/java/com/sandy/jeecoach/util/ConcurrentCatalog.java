@@ -0,0 +1,438 @@
+package com.sandy.jeecoach.util;
+
+import static com.sandy.jeecoach.util.JEEQuestionImage.CATALOG_ORDER ;
+
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.Collections ;
+import java.util.Comparator ;
+import java.util.HashMap ;
+import java.util.HashSet ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.NoSuchElementException ;
+import java.util.Set ;
+import java.util.concurrent.ConcurrentLinkedQueue ;
+import java.util.concurrent.atomic.AtomicReference ;
+import java.util.concurrent.locks.ReentrantLock ;
+
+/**
+ * A catalog of question images which can be read concurrently with
+ * ingestion and renames, without readers ever blocking.
+ *
+ * The catalog state is an immutable snapshot, published atomically.
+ * Readers take the current snapshot and work on it, getting a consistent
+ * point in time view for as long as they hold on to it.
+ *
+ * A snapshot is sharded by chapter (subject/standard/book/chapter). Each
+ * shard holds its images sorted in catalog order along with a QRef index,
+ * so a chapter scan is a shard lookup. A write rebuilds only the shards it
+ * touches, the rest are shared with the previous snapshot.
+ *
+ * Writes are batched. A write is queued and the writer then tries to
+ * publish. Whichever writer gets the write lock applies all the queued
+ * writes and publishes one new snapshot for them, so writers arriving
+ * together pay for one rebuild. A write is visible once its call returns.
+ *
+ * Images should not be modified once added to the catalog.
+ */
+public class ConcurrentCatalog implements Iterable<JEEQuestionImage> {
+
+    private AtomicReference<Snapshot> current =
+                    new AtomicReference<Snapshot>( new Snapshot() ) ;
+
+    private ConcurrentLinkedQueue<Mutation> pending =
+                                    new ConcurrentLinkedQueue<Mutation>() ;
+    private ReentrantLock writeLock = new ReentrantLock() ;
+
+    public Snapshot snapshot() {
+        return current.get() ;
+    }
+
+    public List<JEEQuestionImage> getByQRef( String qRef ) {
+        return snapshot().getByQRef( qRef ) ;
+    }
+
+    public List<JEEQuestionImage> getChapter( String chapterQRef ) {
+        return snapshot().getChapter( chapterQRef ) ;
+    }
+
+    public int size() {
+        return snapshot().size() ;
+    }
+
+    @Override
+    public Iterator<JEEQuestionImage> iterator() {
+        return snapshot().iterator() ;
+    }
+
+    /**
+     * Adds the image. An image with the same file name is replaced.
+     */
+    public void add( JEEQuestionImage img ) {
+        pending.add( new Mutation( null, img ) ) ;
+        publish() ;
+    }
+
+    public void addAll( Collection<JEEQuestionImage> images ) {
+        for( JEEQuestionImage img : images ) {
+            pending.add( new Mutation( null, img ) ) ;
+        }
+        publish() ;
+    }
+
+    /**
+     * Removes the image with the same file name as the one given.
+     */
+    public void remove( JEEQuestionImage img ) {
+        pending.add( new Mutation( img, null ) ) ;
+        publish() ;
+    }
+
+    /**
+     * Replaces oldImg with newImg. Readers see either both or neither.
+     */
+    public void rename( JEEQuestionImage oldImg, JEEQuestionImage newImg ) {
+        pending.add( new Mutation( oldImg, newImg ) ) ;
+        publish() ;
+    }
+
+    private void publish() {
+
+        writeLock.lock() ;
+        try {
+            List<Mutation> batch = new ArrayList<Mutation>() ;
+            Mutation mutation = pending.poll() ;
+            while( mutation != null ) {
+                batch.add( mutation ) ;
+                mutation = pending.poll() ;
+            }
+
+            // Another writer has published our write along with its own.
+            if( batch.isEmpty() ) {
+                return ;
+            }
+            current.set( current.get().apply( batch ) ) ;
+        }
+        finally {
+            writeLock.unlock() ;
+        }
+    }
+
+    private static String getFileName( JEEQuestionImage img ) {
+        return img.getImgFile().getName() ;
+    }
+
+    private static String getShardKey( JEEQuestionImage img ) {
+        return img.getChapterQRef() ;
+    }
+
+    // The subject/standard/book/chapter prefix of a QRef
+    private static String getShardKey( String qRef ) {
+        int index = -1 ;
+        for( int i=0; i<4; i++ ) {
+            index = qRef.indexOf( '/', index+1 ) ;
+            if( index == -1 ) {
+                return qRef ;
+            }
+        }
+        return qRef.substring( 0, index+1 ) ;
+    }
+
+    private static class Mutation {
+
+        JEEQuestionImage removal  = null ;
+        JEEQuestionImage addition = null ;
+
+        Mutation( JEEQuestionImage removal, JEEQuestionImage addition ) {
+            this.removal  = removal ;
+            this.addition = addition ;
+        }
+    }
+
+    /**
+     * An immutable point in time view of the catalog. Iteration is in
+     * catalog order.
+     */
+    public static class Snapshot implements Iterable<JEEQuestionImage> {
+
+        private Map<String, Shard> shards = null ;
+        private Shard[] sortedShards = null ;
+        private int size = 0 ;
+
+        Snapshot() {
+            this( new HashMap<String, Shard>(), null ) ;
+        }
+
+        // The shards are sorted if sortedShards is null
+        private Snapshot( Map<String, Shard> shards, Shard[] sortedShards ) {
+
+            this.shards = shards ;
+            this.sortedShards = sortedShards ;
+            if( sortedShards == null ) {
+                this.sortedShards = shards.values().toArray( new Shard[0] ) ;
+                Arrays.sort( this.sortedShards, new Comparator<Shard>() {
+                    public int compare( Shard s1, Shard s2 ) {
+                        return CATALOG_ORDER.compare( s1.images[0], s2.images[0] ) ;
+                    }
+                } ) ;
+            }
+
+            for( Shard shard : this.sortedShards ) {
+                size += shard.images.length ;
+            }
+        }
+
+        public int size() {
+            return size ;
+        }
+
+        /**
+         * Returns the images with the given QRef - the parts of a question
+         * if it is multipart.
+         */
+        public List<JEEQuestionImage> getByQRef( String qRef ) {
+            Shard shard = shards.get( getShardKey( qRef ) ) ;
+            if( shard == null ) {
+                return Collections.emptyList() ;
+            }
+            List<JEEQuestionImage> images = shard.byQRef.get( qRef ) ;
+            if( images == null ) {
+                return Collections.emptyList() ;
+            }
+            return images ;
+        }
+
+        /**
+         * Returns the images of a chapter in catalog order. The chapter is
+         * identified by its QRef prefix, see JEEQuestionImage#getChapterQRef.
+         */
+        public List<JEEQuestionImage> getChapter( String chapterQRef ) {
+
+            Shard shard = shards.get( chapterQRef ) ;
+            if( shard == null ) {
+                return Collections.emptyList() ;
+            }
+            return Collections.unmodifiableList( Arrays.asList( shard.images ) ) ;
+        }
+
+        @Override
+        public Iterator<JEEQuestionImage> iterator() {
+
+            return new Iterator<JEEQuestionImage>() {
+
+                private int shardIndex = 0 ;
+                private int imageIndex = 0 ;
+
+                public boolean hasNext() {
+                    return shardIndex < sortedShards.length ;
+                }
+
+                public JEEQuestionImage next() {
+                    if( !hasNext() ) {
+                        throw new NoSuchElementException() ;
+                    }
+                    Shard shard = sortedShards[shardIndex] ;
+                    JEEQuestionImage img = shard.images[imageIndex++] ;
+                    if( imageIndex == shard.images.length ) {
+                        shardIndex++ ;
+                        imageIndex = 0 ;
+                    }
+                    return img ;
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException() ;
+                }
+            } ;
+        }
+
+        // Returns a new snapshot with the mutations applied. Only the
+        // shards touched by the mutations are rebuilt.
+        Snapshot apply( List<Mutation> mutations ) {
+
+            Map<String, Set<String>> removals = new HashMap<String, Set<String>>() ;
+            Map<String, Map<String, JEEQuestionImage>> additions =
+                            new HashMap<String, Map<String, JEEQuestionImage>>() ;
+
+            // Later mutations of the same file name win
+            for( Mutation mutation : mutations ) {
+                if( mutation.removal != null ) {
+                    String shardKey = getShardKey( mutation.removal ) ;
+                    String fileName = getFileName( mutation.removal ) ;
+                    getSet( removals, shardKey ).add( fileName ) ;
+                    if( additions.containsKey( shardKey ) ) {
+                        additions.get( shardKey ).remove( fileName ) ;
+                    }
+                }
+                if( mutation.addition != null ) {
+                    String shardKey = getShardKey( mutation.addition ) ;
+                    if( !additions.containsKey( shardKey ) ) {
+                        additions.put( shardKey,
+                                       new HashMap<String, JEEQuestionImage>() ) ;
+                    }
+                    additions.get( shardKey ).put( getFileName( mutation.addition ),
+                                                   mutation.addition ) ;
+                }
+            }
+
+            Set<String> shardKeys = new HashSet<String>( removals.keySet() ) ;
+            shardKeys.addAll( additions.keySet() ) ;
+
+            Map<String, Shard> newShards = new HashMap<String, Shard>( shards ) ;
+            List<Shard> rebuiltShards = new ArrayList<Shard>() ;
+            boolean shardSetChanged = false ;
+            for( String shardKey : shardKeys ) {
+
+                Set<String> removed = removals.get( shardKey ) ;
+                Map<String, JEEQuestionImage> added = additions.get( shardKey ) ;
+
+                Shard newShard = Shard.build( shardKey, shards.get( shardKey ),
+                        removed == null ? Collections.<String>emptySet() : removed,
+                        added == null ? Collections.<JEEQuestionImage>emptyList() :
+                                        added.values() ) ;
+                if( newShard == null ) {
+                    newShards.remove( shardKey ) ;
+                    shardSetChanged = true ;
+                }
+                else {
+                    shardSetChanged |= !shards.containsKey( shardKey ) ;
+                    newShards.put( shardKey, newShard ) ;
+                    rebuiltShards.add( newShard ) ;
+                }
+            }
+
+            if( shardSetChanged ) {
+                return new Snapshot( newShards, null ) ;
+            }
+
+            // Same chapters as before, the rebuilt shards take the place of
+            // the old ones without sorting again.
+            Shard[] newSortedShards = sortedShards.clone() ;
+            for( Shard newShard : rebuiltShards ) {
+                for( int i=0; i<newSortedShards.length; i++ ) {
+                    if( newSortedShards[i].key.equals( newShard.key ) ) {
+                        newSortedShards[i] = newShard ;
+                        break ;
+                    }
+                }
+            }
+            return new Snapshot( newShards, newSortedShards ) ;
+        }
+
+        private static Set<String> getSet( Map<String, Set<String>> map,
+                                           String key ) {
+            Set<String> set = map.get( key ) ;
+            if( set == null ) {
+                set = new HashSet<String>() ;
+                map.put( key, set ) ;
+            }
+            return set ;
+        }
+    }
+
+    // The images of one chapter, sorted in catalog order
+    private static class Shard {
+
+        String key = null ;
+        JEEQuestionImage[] images = null ;
+        Map<String, List<JEEQuestionImage>> byQRef = null ;
+
+        private Shard( String key, JEEQuestionImage[] images,
+                       Map<String, List<JEEQuestionImage>> byQRef ) {
+            this.key    = key ;
+            this.images = images ;
+            this.byQRef = byQRef ;
+        }
+
+        // Builds a shard from the old one by dropping the removed file names
+        // and merging in the additions. The QRef index of the old shard is
+        // copied and only the QRefs touched are regrouped. Returns null if
+        // no images are left.
+        static Shard build( String key, Shard oldShard, Set<String> removed,
+                            Collection<JEEQuestionImage> added ) {
+
+            JEEQuestionImage[] newImages = added.toArray( new JEEQuestionImage[0] ) ;
+            Arrays.sort( newImages, CATALOG_ORDER ) ;
+
+            Set<String> replaced = new HashSet<String>( removed ) ;
+            for( JEEQuestionImage img : newImages ) {
+                replaced.add( getFileName( img ) ) ;
+            }
+
+            JEEQuestionImage[] oldImages = new JEEQuestionImage[0] ;
+            Map<String, List<JEEQuestionImage>> byQRef =
+                                new HashMap<String, List<JEEQuestionImage>>() ;
+            if( oldShard != null ) {
+                oldImages = oldShard.images ;
+                byQRef.putAll( oldShard.byQRef ) ;
+            }
+
+            Set<String> touchedQRefs = new HashSet<String>() ;
+            Map<String, List<JEEQuestionImage>> newByQRef =
+                                new HashMap<String, List<JEEQuestionImage>>() ;
+            List<JEEQuestionImage> merged = new ArrayList<JEEQuestionImage>(
+                                    oldImages.length + newImages.length ) ;
+            int i = 0 ;
+            int j = 0 ;
+            while( i < oldImages.length || j < newImages.length ) {
+                if( i < oldImages.length &&
+                    replaced.contains( getFileName( oldImages[i] ) ) ) {
+                    touchedQRefs.add( oldImages[i++].getQRef() ) ;
+                }
+                else if( j == newImages.length ||
+                         ( i < oldImages.length &&
+                           CATALOG_ORDER.compare( oldImages[i], newImages[j] ) < 0 ) ) {
+                    merged.add( oldImages[i++] ) ;
+                }
+                else {
+                    String qRef = newImages[j].getQRef() ;
+                    touchedQRefs.add( qRef ) ;
+                    getList( newByQRef, qRef ).add( newImages[j] ) ;
+                    merged.add( newImages[j++] ) ;
+                }
+            }
+
+            if( merged.isEmpty() ) {
+                return null ;
+            }
+
+            for( String qRef : touchedQRefs ) {
+                List<JEEQuestionImage> group = new ArrayList<JEEQuestionImage>() ;
+                List<JEEQuestionImage> oldGroup = byQRef.get( qRef ) ;
+                if( oldGroup != null ) {
+                    for( JEEQuestionImage img : oldGroup ) {
+                        if( !replaced.contains( getFileName( img ) ) ) {
+                            group.add( img ) ;
+                        }
+                    }
+                }
+                if( newByQRef.containsKey( qRef ) ) {
+                    group.addAll( newByQRef.get( qRef ) ) ;
+                }
+
+                if( group.isEmpty() ) {
+                    byQRef.remove( qRef ) ;
+                }
+                else {
+                    Collections.sort( group, CATALOG_ORDER ) ;
+                    byQRef.put( qRef, Collections.unmodifiableList( group ) ) ;
+                }
+            }
+
+            return new Shard( key, merged.toArray( new JEEQuestionImage[0] ), byQRef ) ;
+        }
+
+        private static List<JEEQuestionImage> getList(
+                Map<String, List<JEEQuestionImage>> map, String key ) {
+            List<JEEQuestionImage> list = map.get( key ) ;
+            if( list == null ) {
+                list = new ArrayList<JEEQuestionImage>() ;
+                map.put( key, list ) ;
+            }
+            return list ;
+        }
+    }
+}
@@ -3,8 +3,14 @@ package com.sandy.jeecoach.util ;
 import static com.sandy.jeecoach.util.JEEBookCode.* ;
 
 import java.io.File ;
+import java.util.ArrayList ;
 import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.Collections ;
+import java.util.Comparator ;
+import java.util.LinkedHashMap ;
 import java.util.List ;
+import java.util.Map ;
 
 import lombok.Data ;
 import lombok.EqualsAndHashCode ;
@@ -35,6 +41,26 @@ public class JEEQuestionImage extends AbstractQuestion<JEEQuestionImage>
     static List<String> Q_TYPE_SEQ = Arrays.asList( SCA, MCA, NT, LCT, MMT ) ;
     static List<String> SUB_SEQ   = Arrays.asList( "P", "C", "M" ) ;
     
+    // Catalog order - the natural order of the images, with the images that
+    // compareTo treats as equal (for example a part and a non part variant 
+    // of the same question) ordered by file name and then by path, so that
+    // the order is total.
+    public static final Comparator<JEEQuestionImage> CATALOG_ORDER = 
+                                    new Comparator<JEEQuestionImage>() {
+        public int compare( JEEQuestionImage img1, JEEQuestionImage img2 ) {
+            int result = img1.compareTo( img2 ) ;
+            if( result == 0 ) {
+                result = img1.getImgFile().getName()
+                             .compareTo( img2.getImgFile().getName() ) ;
+            }
+            if( result == 0 ) {
+                result = img1.getImgFile().getPath()
+                             .compareTo( img2.getImgFile().getPath() ) ;
+            }
+            return result ;
+        }
+    } ;
+    
     private boolean isLCTContext = false ;
     
     private String subjectCode  = null ;  // 0
@@ -55,6 +81,29 @@ public class JEEQuestionImage extends AbstractQuestion<JEEQuestionImage>
         parseFileName( this.imgFile.getName() ) ;
     }
     
+    // Builds an image from already parsed fields. The file name is not
+    // parsed again, the file is expected to have the matching name.
+    JEEQuestionImage( File file, String subjectCode, int standard, 
+                      String bookCode, int chapterNum, String questionType,
+                      int lctSequence, int partNumber ) {
+        
+        this.imgFile      = file ;
+        this.subjectCode  = subjectCode ;
+        this.standard     = standard ;
+        this.bookCode     = bookCode ;
+        this.chapterNum   = chapterNum ;
+        this.questionType = questionType ;
+        this.lctSequence  = lctSequence ;
+        this.partNumber   = partNumber ;
+        this.isLCTContext = isLCT() ;
+    }
+    
+    // Attaches the QID for images built from parsed fields.
+    void attachQId( QID qId ) {
+        this.qId = qId ;
+        this.isLCTContext = false ;
+    }
+    
     public JEEQuestionImage getClone() {
         File file = new File( imgFile.getParent(), getFileName() ) ;
         return new JEEQuestionImage( file ) ;
@@ -234,6 +283,44 @@ public class JEEQuestionImage extends AbstractQuestion<JEEQuestionImage>
         return sb.toString() ;
     }
     
+    /**
+     * Groups the images by their QRef. The parts of each group are sorted
+     * by their part number and the groups are returned in catalog order.
+     */
+    public static Map<String, List<JEEQuestionImage>> groupParts(
+                                    Collection<JEEQuestionImage> images ) {
+    
+        List<JEEQuestionImage> sortedImages =
+                                    new ArrayList<JEEQuestionImage>( images ) ;
+        Collections.sort( sortedImages, CATALOG_ORDER ) ;
+    
+        Map<String, List<JEEQuestionImage>> groups =
+                        new LinkedHashMap<String, List<JEEQuestionImage>>() ;
+        for( JEEQuestionImage img : sortedImages ) {
+            List<JEEQuestionImage> parts = groups.get( img.getQRef() ) ;
+            if( parts == null ) {
+                parts = new ArrayList<JEEQuestionImage>() ;
+                groups.put( img.getQRef(), parts ) ;
+            }
+            parts.add( img ) ;
+        }
+        return groups ;
+    }
+    
+    public String getChapterQRef() {
+
+        StringBuilder sb = new StringBuilder() ;
+        sb.append( subjectCode )
+          .append( "/" )
+          .append( standard )
+          .append( "/" )
+          .append( bookCode )
+          .append( "/" )
+          .append( chapterNum )
+          .append( "/" ) ;
+        return sb.toString() ;
+    }
+
     public boolean isPart() {
         return this.partNumber != -1 ;
     }
@@ -284,10 +371,10 @@ public class JEEQuestionImage extends AbstractQuestion<JEEQuestionImage>
             if( lctSequence != img.lctSequence ) {
                 return lctSequence - img.lctSequence ;
             }
-            else if( this.qId == null ) {
+            else if( this.qId == null && img.qId != null ) {
                 return -1 ;
             }
-            else if( img.qId == null ) {
+            else if( img.qId == null && this.qId != null ) {
                 return 1 ;
             }
         }
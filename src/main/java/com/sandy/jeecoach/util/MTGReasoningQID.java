@@ -18,6 +18,11 @@ public class MTGReasoningQID extends QID {
         parseQID( parts ) ;
     }
 
+    MTGReasoningQID( JEEQuestionImage qImg, int questionNumber ) {
+        super( qImg ) ;
+        this.questionNumber = questionNumber ;
+    }
+
     private void parseQID( String[] qIdParts ) {
         
         if( qIdParts.length != 1 ) {
@@ -0,0 +1,184 @@
+package com.sandy.jeecoach.util;
+
+import java.io.ByteArrayOutputStream ;
+import java.io.Closeable ;
+import java.io.DataOutputStream ;
+import java.io.IOException ;
+import java.io.OutputStream ;
+import java.util.zip.CRC32 ;
+import java.util.zip.Deflater ;
+import java.util.zip.DeflaterOutputStream ;
+
+/**
+ * Writes an 8 bit RGBA PNG one row at a time. The dimensions have to be
+ * known upfront, but the pixel data is compressed and flushed to the output
+ * as the rows are written, so the image is never held in memory as a whole.
+ */
+public class PNGStreamWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {
+        (byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'
+    } ;
+
+    private static final int IDAT_CHUNK_SIZE = 64*1024 ;
+
+    private DataOutputStream out = null ;
+    private DeflaterOutputStream idatOut = null ;
+    private Deflater deflater = null ;
+
+    private int width  = 0 ;
+    private int height = 0 ;
+    private int numRowsWritten = 0 ;
+
+    private byte[] curRow  = null ;
+    private byte[] prevRow = null ;
+    private byte[] filteredRow = null ;
+
+    public PNGStreamWriter( OutputStream os, int width, int height )
+        throws IOException {
+
+        if( width <= 0 || height <= 0 ) {
+            throw new IllegalArgumentException(
+                    "Invalid image dimensions " + width + "x" + height ) ;
+        }
+
+        this.out    = new DataOutputStream( os ) ;
+        this.width  = width ;
+        this.height = height ;
+
+        this.curRow      = new byte[width*4] ;
+        this.prevRow     = new byte[width*4] ;
+        this.filteredRow = new byte[width*4 + 1] ;
+
+        out.write( SIGNATURE ) ;
+        writeHeader() ;
+
+        deflater = new Deflater( Deflater.DEFAULT_COMPRESSION ) ;
+        idatOut  = new DeflaterOutputStream( new IDATOutputStream(),
+                                             deflater, IDAT_CHUNK_SIZE ) ;
+    }
+
+    /**
+     * Writes the next row. Pixels are in the default ARGB format as returned
+     * by BufferedImage#getRGB. If fewer than width pixels are given, the
+     * rest of the row is filled with the specified background color.
+     */
+    public void writeRow( int[] argb, int numPixels, int bgColor )
+        throws IOException {
+
+        if( numRowsWritten == height ) {
+            throw new IllegalStateException( "All rows already written." ) ;
+        }
+
+        for( int x=0; x<width; x++ ) {
+            int pixel = ( x < numPixels ) ? argb[x] : bgColor ;
+            int i = x*4 ;
+            curRow[i]   = (byte)( pixel >> 16 ) ;
+            curRow[i+1] = (byte)( pixel >> 8 ) ;
+            curRow[i+2] = (byte)( pixel ) ;
+            curRow[i+3] = (byte)( pixel >> 24 ) ;
+        }
+
+        // The Up filter - question images are mostly white space and text
+        // so the difference with the previous row is mostly zero.
+        filteredRow[0] = 2 ;
+        for( int i=0; i<curRow.length; i++ ) {
+            filteredRow[i+1] = (byte)( curRow[i] - prevRow[i] ) ;
+        }
+        idatOut.write( filteredRow ) ;
+
+        byte[] temp = prevRow ;
+        prevRow = curRow ;
+        curRow  = temp ;
+
+        numRowsWritten++ ;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+            if( numRowsWritten != height ) {
+                throw new IllegalStateException( "Only " + numRowsWritten +
+                                      " of " + height + " rows written." ) ;
+            }
+
+            idatOut.close() ;
+            writeChunk( "IEND", new byte[0], 0 ) ;
+        }
+        finally {
+            deflater.end() ;
+            out.close() ;
+        }
+    }
+
+    private void writeHeader() throws IOException {
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream() ;
+        DataOutputStream dos = new DataOutputStream( bos ) ;
+        dos.writeInt( width ) ;
+        dos.writeInt( height ) ;
+        dos.writeByte( 8 ) ;  // Bit depth
+        dos.writeByte( 6 ) ;  // Color type - RGBA
+        dos.writeByte( 0 ) ;  // Compression - deflate
+        dos.writeByte( 0 ) ;  // Filter method - adaptive
+        dos.writeByte( 0 ) ;  // No interlace
+
+        byte[] data = bos.toByteArray() ;
+        writeChunk( "IHDR", data, data.length ) ;
+    }
+
+    private void writeChunk( String type, byte[] data, int len )
+        throws IOException {
+
+        byte[] typeBytes = type.getBytes( "US-ASCII" ) ;
+
+        CRC32 crc = new CRC32() ;
+        crc.update( typeBytes ) ;
+        crc.update( data, 0, len ) ;
+
+        out.writeInt( len ) ;
+        out.write( typeBytes ) ;
+        out.write( data, 0, len ) ;
+        out.writeInt( (int)crc.getValue() ) ;
+    }
+
+    // Packs the compressed stream into IDAT chunks.
+    private class IDATOutputStream extends OutputStream {
+
+        private byte[] buffer = new byte[IDAT_CHUNK_SIZE] ;
+        private int count = 0 ;
+
+        @Override
+        public void write( int b ) throws IOException {
+            write( new byte[]{ (byte)b }, 0, 1 ) ;
+        }
+
+        @Override
+        public void write( byte[] b, int off, int len ) throws IOException {
+            while( len > 0 ) {
+                int numToCopy = Math.min( len, buffer.length - count ) ;
+                System.arraycopy( b, off, buffer, count, numToCopy ) ;
+                count += numToCopy ;
+                off   += numToCopy ;
+                len   -= numToCopy ;
+                if( count == buffer.length ) {
+                    flush() ;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if( count > 0 ) {
+                writeChunk( "IDAT", buffer, count ) ;
+                count = 0 ;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush() ;
+        }
+    }
+}
@@ -0,0 +1,612 @@
+package com.sandy.jeecoach.util;
+
+import java.io.File ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Collection ;
+import java.util.Collections ;
+import java.util.Comparator ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Queue ;
+import java.util.Random ;
+import java.util.TreeMap ;
+import java.util.concurrent.Callable ;
+import java.util.concurrent.ConcurrentLinkedQueue ;
+import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.ExecutorService ;
+import java.util.concurrent.Executors ;
+import java.util.concurrent.Future ;
+
+/**
+ * Generates timed test papers from the question catalog.
+ *
+ * The questions are indexed into buckets by chapter, question type and
+ * section. Within a bucket they are grouped by difficulty level and sorted
+ * by projected time. For generating papers, the buckets accepted by the
+ * profile are merged into a pool of [difficulty][projected time] classes.
+ * Questions within a class are interchangeable as far as the constraints
+ * are concerned, so a pick is a random choice of a class which fits in the
+ * remaining time followed by a random question from that class.
+ *
+ * The pool is dealt into disjoint shards, one per worker used by a batch,
+ * so that papers can be generated in parallel without any coordination and
+ * no question appears in more than one paper of a batch. A batch of fewer
+ * papers than workers uses one worker per paper, and a single paper is
+ * picked from the whole pool. A batch may have fewer papers than asked for
+ * if the pool runs out of questions.
+ *
+ * Building a pool walks the whole catalog, so callers generating papers
+ * repeatedly for a profile should prepare the pool once and reuse it. Each
+ * batch starts from the full pool. Concurrent batches on a pool do not wait
+ * for each other - each gets its own set of shards, which are dealt the
+ * first time they are needed and reused after.
+ *
+ * Multipart questions are picked whole. LCT questions carry their context
+ * image and are skipped if the context is not in the catalog.
+ */
+public class PaperGenerator {
+
+    private static final int MAX_FAILED_ATTEMPTS = 32 ;
+
+    // Bucket key -> questions by difficulty level, sorted by projected time
+    private Map<String, List<List<PaperQuestion>>> buckets =
+                        new TreeMap<String, List<List<PaperQuestion>>>() ;
+
+    private ExecutorService executor = null ;
+    private int numWorkers = 0 ;
+
+    public PaperGenerator( Collection<JEEQuestionImage> images, int numWorkers ) {
+        this.numWorkers = numWorkers ;
+        this.executor   = Executors.newFixedThreadPool( numWorkers ) ;
+        indexQuestions( images ) ;
+    }
+
+    public void shutdown() {
+        executor.shutdown() ;
+    }
+
+    public List<PaperQuestion> getBucket( String bucketKey, int level ) {
+        List<List<PaperQuestion>> bucket = buckets.get( bucketKey ) ;
+        if( bucket == null ) {
+            return Collections.emptyList() ;
+        }
+        return Collections.unmodifiableList( bucket.get( level ) ) ;
+    }
+
+    public Collection<String> getBucketKeys() {
+        return Collections.unmodifiableSet( buckets.keySet() ) ;
+    }
+
+    /**
+     * Generates up to numPapers papers matching the profile, no two of which
+     * share a question. The seed makes the generation repeatable for the
+     * same catalog and number of workers.
+     */
+    public List<TestPaper> generate( PaperProfile profile, int numPapers,
+                                     long seed ) {
+        return generate( preparePool( profile ), numPapers, seed ) ;
+    }
+
+    /**
+     * Returns the pool of questions accepted by the profile, which can be
+     * used for any number of batches. The profile should not be changed
+     * once its pool is prepared.
+     */
+    public Pool preparePool( PaperProfile profile ) {
+
+        // Questions accepted by the profile, by [level][projected time].
+        // All the questions in a bucket share the chapter, question type
+        // and section, so the profile is checked once per bucket level.
+        List<TreeMap<Integer, List<PaperQuestion>>> classes =
+                            new ArrayList<TreeMap<Integer, List<PaperQuestion>>>() ;
+
+        for( int level=0; level<=PaperProfile.MAX_DIFFICULTY_LEVEL; level++ ) {
+            TreeMap<Integer, List<PaperQuestion>> byTime =
+                                new TreeMap<Integer, List<PaperQuestion>>() ;
+            if( profile.getDifficultyWeight( level ) > 0 ) {
+                for( List<List<PaperQuestion>> bucket : buckets.values() ) {
+                    List<PaperQuestion> questions = bucket.get( level ) ;
+                    if( !questions.isEmpty() &&
+                        profile.accepts( questions.get( 0 ) ) ) {
+                        addRuns( questions, byTime ) ;
+                    }
+                }
+            }
+            classes.add( byTime ) ;
+        }
+
+        return new Pool( profile, classes, numWorkers ) ;
+    }
+
+    /**
+     * Generates up to numPapers papers from a prepared pool. The seed makes
+     * the generation repeatable for the same pool, number of workers and
+     * number of papers.
+     */
+    public List<TestPaper> generate( Pool pool, int numPapers, long seed ) {
+
+        if( numPapers <= 0 ) {
+            return new ArrayList<TestPaper>() ;
+        }
+
+        int numShards = Math.min( numWorkers, numPapers ) ;
+        Shard[] shards = pool.borrowShards( numShards ) ;
+
+        List<Worker> workers = new ArrayList<Worker>() ;
+        for( int i=0; i<numShards; i++ ) {
+            int quota = numPapers/numShards + ( i < numPapers%numShards ? 1 : 0 ) ;
+            workers.add( new Worker( pool.profile, shards[i], quota,
+                                     new Random( seed + i ) ) ) ;
+        }
+
+        // Not worth a hand off for a single worker. The shards are given
+        // back only if all the workers are done with them.
+        List<TestPaper> papers = ( numShards == 1 ) ?
+                                 workers.get( 0 ).call() :
+                                 runWorkers( workers ) ;
+        pool.returnShards( shards ) ;
+        return papers ;
+    }
+
+    private List<TestPaper> runWorkers( List<Worker> workers ) {
+
+        List<Future<List<TestPaper>>> results =
+                                new ArrayList<Future<List<TestPaper>>>() ;
+        for( Worker worker : workers ) {
+            results.add( executor.submit( worker ) ) ;
+        }
+
+        List<TestPaper> papers = new ArrayList<TestPaper>() ;
+        try {
+            for( Future<List<TestPaper>> result : results ) {
+                papers.addAll( result.get() ) ;
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt() ;
+            throw new IllegalStateException( "Paper generation interrupted.", e ) ;
+        }
+        catch( ExecutionException e ) {
+            throw new IllegalStateException( "Paper generation failed.", e.getCause() ) ;
+        }
+        return papers ;
+    }
+
+    private void indexQuestions( Collection<JEEQuestionImage> images ) {
+
+        Map<String, List<JEEQuestionImage>> groups =
+                                    JEEQuestionImage.groupParts( images ) ;
+
+        Map<String, List<JEEQuestionImage>> lctContexts =
+                            new HashMap<String, List<JEEQuestionImage>>() ;
+        for( List<JEEQuestionImage> parts : groups.values() ) {
+            if( parts.get( 0 ).isLCTContext() ) {
+                lctContexts.put( parts.get( 0 ).getLCTCtxQRef(), parts ) ;
+            }
+        }
+
+        for( List<JEEQuestionImage> parts : groups.values() ) {
+
+            JEEQuestionImage img = parts.get( 0 ) ;
+            if( img.isLCTContext() || img.getProjectedTime() <= 0 ) {
+                continue ;
+            }
+
+            List<JEEQuestionImage> ctxParts = null ;
+            if( img.isLCT() ) {
+                ctxParts = lctContexts.get( img.getLCTCtxQRef() ) ;
+                if( ctxParts == null ) {
+                    continue ;
+                }
+            }
+
+            PaperQuestion question = new PaperQuestion( parts, ctxParts ) ;
+
+            List<List<PaperQuestion>> bucket = buckets.get( question.getBucketKey() ) ;
+            if( bucket == null ) {
+                bucket = new ArrayList<List<PaperQuestion>>() ;
+                for( int i=0; i<=PaperProfile.MAX_DIFFICULTY_LEVEL; i++ ) {
+                    bucket.add( new ArrayList<PaperQuestion>() ) ;
+                }
+                buckets.put( question.getBucketKey(), bucket ) ;
+            }
+            bucket.get( question.getDifficultyLevel() ).add( question ) ;
+        }
+
+        Comparator<PaperQuestion> byTime = new Comparator<PaperQuestion>() {
+            public int compare( PaperQuestion q1, PaperQuestion q2 ) {
+                return q1.getProjectedTime() - q2.getProjectedTime() ;
+            }
+        } ;
+        for( List<List<PaperQuestion>> bucket : buckets.values() ) {
+            for( List<PaperQuestion> questions : bucket ) {
+                Collections.sort( questions, byTime ) ;
+            }
+        }
+    }
+
+    // Adds the runs of equal projected time from the time sorted questions
+    // to their time classes.
+    private void addRuns( List<PaperQuestion> questions,
+                          Map<Integer, List<PaperQuestion>> byTime ) {
+
+        int runStart = 0 ;
+        while( runStart < questions.size() ) {
+            int time = questions.get( runStart ).getProjectedTime() ;
+            int runEnd = runStart + 1 ;
+            while( runEnd < questions.size() &&
+                   questions.get( runEnd ).getProjectedTime() == time ) {
+                runEnd++ ;
+            }
+
+            List<PaperQuestion> sameTime = byTime.get( time ) ;
+            if( sameTime == null ) {
+                sameTime = new ArrayList<PaperQuestion>() ;
+                byTime.put( time, sameTime ) ;
+            }
+            sameTime.addAll( questions.subList( runStart, runEnd ) ) ;
+            runStart = runEnd ;
+        }
+    }
+
+    /**
+     * The questions accepted by a profile, by [difficulty level][projected
+     * time]. A batch borrows a set of shards dealt from the pool and returns
+     * it when done.
+     */
+    public static class Pool {
+
+        private PaperProfile profile = null ;
+        private List<TreeMap<Integer, List<PaperQuestion>>> classes = null ;
+
+        // Idle shard sets, by the number of shards in the set
+        private List<Queue<Shard[]>> idleShards = new ArrayList<Queue<Shard[]>>() ;
+
+        private Pool( PaperProfile profile,
+                      List<TreeMap<Integer, List<PaperQuestion>>> classes,
+                      int maxShards ) {
+
+            this.profile = profile ;
+            this.classes = classes ;
+            for( int i=0; i<=maxShards; i++ ) {
+                idleShards.add( new ConcurrentLinkedQueue<Shard[]>() ) ;
+            }
+        }
+
+        public PaperProfile getProfile() {
+            return profile ;
+        }
+
+        private Shard[] borrowShards( int numShards ) {
+
+            Shard[] shards = idleShards.get( numShards ).poll() ;
+            if( shards == null ) {
+                shards = new Shard[numShards] ;
+                for( int i=0; i<numShards; i++ ) {
+                    shards[i] = deal( i, numShards ) ;
+                }
+            }
+            return shards ;
+        }
+
+        private void returnShards( Shard[] shards ) {
+            idleShards.get( shards.length ).offer( shards ) ;
+        }
+
+        // Deals every numShards'th question of each class to the shard. The
+        // classes hold the buckets one after another, so each shard gets an
+        // even share of every chapter.
+        private Shard deal( int shardIndex, int numShards ) {
+
+            Shard shard = new Shard() ;
+            for( int level=0; level<classes.size(); level++ ) {
+
+                List<Integer> times = new ArrayList<Integer>() ;
+                List<PaperQuestion[]> questions = new ArrayList<PaperQuestion[]>() ;
+                for( Map.Entry<Integer, List<PaperQuestion>> entry :
+                                            classes.get( level ).entrySet() ) {
+
+                    List<PaperQuestion> sameTime = entry.getValue() ;
+                    int numDealt = ( sameTime.size() - shardIndex + numShards - 1 )/numShards ;
+                    if( numDealt <= 0 ) {
+                        continue ;
+                    }
+
+                    PaperQuestion[] dealt = new PaperQuestion[numDealt] ;
+                    for( int i=0; i<numDealt; i++ ) {
+                        dealt[i] = sameTime.get( shardIndex + i*numShards ) ;
+                    }
+                    times.add( entry.getKey() ) ;
+                    questions.add( dealt ) ;
+                }
+
+                int numClasses = times.size() ;
+                shard.times[level]     = new int[numClasses] ;
+                shard.questions[level] = questions.toArray( new PaperQuestion[0][] ) ;
+                shard.remaining[level] = new int[numClasses] ;
+                shard.taken[level]     = new int[numClasses] ;
+                for( int c=0; c<numClasses; c++ ) {
+                    shard.times[level][c] = times.get( c ) ;
+                }
+            }
+            return shard ;
+        }
+    }
+
+    // The questions available to a worker, by [difficulty level][time class].
+    // The first remaining questions of a class are available, picked ones
+    // are swapped to the end of the available range.
+    //
+    // The swaps are logged so that the shard can be put back in its original
+    // order for the next batch, which keeps the batches repeatable without
+    // copying the shard.
+    private static class Shard {
+
+        int[][]            times     = new int[PaperProfile.MAX_DIFFICULTY_LEVEL + 1][] ;
+        PaperQuestion[][][] questions = new PaperQuestion[PaperProfile.MAX_DIFFICULTY_LEVEL + 1][][] ;
+        int[][]            remaining = new int[PaperProfile.MAX_DIFFICULTY_LEVEL + 1][] ;
+        int[][]            taken     = new int[PaperProfile.MAX_DIFFICULTY_LEVEL + 1][] ;
+
+        // [level, time class, index1, index2] per swap
+        int[] swapLog = new int[256] ;
+        int swapLogSize = 0 ;
+
+        void swap( int level, int timeClass, int i, int j ) {
+
+            if( swapLogSize + 4 > swapLog.length ) {
+                swapLog = Arrays.copyOf( swapLog, swapLog.length*2 ) ;
+            }
+            swapLog[swapLogSize++] = level ;
+            swapLog[swapLogSize++] = timeClass ;
+            swapLog[swapLogSize++] = i ;
+            swapLog[swapLogSize++] = j ;
+
+            PaperQuestion[] classQuestions = questions[level][timeClass] ;
+            PaperQuestion question = classQuestions[i] ;
+            classQuestions[i] = classQuestions[j] ;
+            classQuestions[j] = question ;
+        }
+
+        // Undoes the swaps of the last batch and makes all questions
+        // available again.
+        void reset() {
+
+            while( swapLogSize > 0 ) {
+                int j         = swapLog[--swapLogSize] ;
+                int i         = swapLog[--swapLogSize] ;
+                int timeClass = swapLog[--swapLogSize] ;
+                int level     = swapLog[--swapLogSize] ;
+
+                PaperQuestion[] classQuestions = questions[level][timeClass] ;
+                PaperQuestion question = classQuestions[i] ;
+                classQuestions[i] = classQuestions[j] ;
+                classQuestions[j] = question ;
+            }
+
+            for( int level=0; level<questions.length; level++ ) {
+                for( int c=0; c<questions[level].length; c++ ) {
+                    remaining[level][c] = questions[level][c].length ;
+                }
+            }
+        }
+    }
+
+    private static class Worker implements Callable<List<TestPaper>> {
+
+        private PaperProfile profile = null ;
+        private Shard shard = null ;
+        private int quota = 0 ;
+        private Random random = null ;
+
+        private int lastLevel = 0 ;
+        private List<PaperQuestion> picked = new ArrayList<PaperQuestion>() ;
+
+        Worker( PaperProfile profile, Shard shard, int quota, Random random ) {
+            this.profile = profile ;
+            this.shard   = shard ;
+            this.quota   = quota ;
+            this.random  = random ;
+
+            for( int level=0; level<=PaperProfile.MAX_DIFFICULTY_LEVEL; level++ ) {
+                if( profile.getDifficultyWeight( level ) > 0 ) {
+                    lastLevel = level ;
+                }
+            }
+        }
+
+        @Override
+        public List<TestPaper> call() {
+
+            shard.reset() ;
+
+            List<TestPaper> papers = new ArrayList<TestPaper>() ;
+            int numFailedAttempts = 0 ;
+
+            while( papers.size() < quota &&
+                   numFailedAttempts < MAX_FAILED_ATTEMPTS ) {
+
+                TestPaper paper = generatePaper() ;
+                if( paper == null ) {
+                    numFailedAttempts++ ;
+                }
+                else {
+                    papers.add( paper ) ;
+                    numFailedAttempts = 0 ;
+                }
+            }
+            return papers ;
+        }
+
+        // Returns null if the picked questions do not add up to the target
+        // time, in which case they are returned to the shard.
+        private TestPaper generatePaper() {
+
+            picked.clear() ;
+            int targetTime = profile.getTargetTime() ;
+            int tolerance  = profile.getTolerance() ;
+            int totalTime  = 0 ;
+
+            // The last level makes up for whatever the other levels could
+            // not fill.
+            for( int level=0; level<=lastLevel; level++ ) {
+                if( profile.getDifficultyWeight( level ) > 0 ) {
+                    Arrays.fill( shard.taken[level], 0 ) ;
+                    int budget = ( level == lastLevel ) ?
+                                 targetTime - totalTime :
+                                 profile.getTimeBudget( level ) ;
+                    totalTime += fill( level, budget ) ;
+                }
+            }
+
+            // The projected times are coarse, so the budgets may not be met
+            // exactly. Top up from any level to bring the paper within
+            // tolerance.
+            for( int level=lastLevel; level>=0; level-- ) {
+                if( profile.getDifficultyWeight( level ) > 0 &&
+                    totalTime < targetTime - tolerance ) {
+                    totalTime += fill( level, targetTime + tolerance - totalTime ) ;
+                }
+            }
+
+            if( Math.abs( totalTime - targetTime ) <= tolerance ) {
+                return new TestPaper( picked ) ;
+            }
+
+            // Picked questions are just past the available range, so they
+            // can be given back by extending the range.
+            for( int level=0; level<=lastLevel; level++ ) {
+                if( profile.getDifficultyWeight( level ) > 0 ) {
+                    for( int c=0; c<shard.taken[level].length; c++ ) {
+                        shard.remaining[level][c] += shard.taken[level][c] ;
+                    }
+                }
+            }
+            return null ;
+        }
+
+        // Picks questions of the level till no more fit in the budget.
+        // Returns the time picked.
+        private int fill( int level, int budget ) {
+
+            int spent = 0 ;
+            int timeClass = pickTimeClass( level, budget ) ;
+            while( timeClass != -1 ) {
+                picked.add( take( level, timeClass ) ) ;
+                spent += shard.times[level][timeClass] ;
+                timeClass = pickTimeClass( level, budget - spent ) ;
+            }
+            return spent ;
+        }
+
+        // Picks a random class among the ones with questions left and a
+        // projected time within the room left. Returns -1 if none fit.
+        private int pickTimeClass( int level, int room ) {
+
+            int[] times = shard.times[level] ;
+            int[] remaining = shard.remaining[level] ;
+
+            int numFitting = 0 ;
+            for( int c=0; c<times.length && times[c]<=room; c++ ) {
+                if( remaining[c] > 0 ) {
+                    numFitting++ ;
+                }
+            }
+            if( numFitting == 0 ) {
+                return -1 ;
+            }
+
+            int choice = random.nextInt( numFitting ) ;
+            for( int c=0; c<times.length; c++ ) {
+                if( remaining[c] > 0 && choice-- == 0 ) {
+                    return c ;
+                }
+            }
+            return -1 ;
+        }
+
+        private PaperQuestion take( int level, int timeClass ) {
+
+            int last  = --shard.remaining[level][timeClass] ;
+            int index = random.nextInt( last + 1 ) ;
+            if( index != last ) {
+                shard.swap( level, timeClass, index, last ) ;
+            }
+
+            shard.taken[level][timeClass]++ ;
+            return shard.questions[level][timeClass][last] ;
+        }
+    }
+
+    // Generates papers from a synthetic catalog and reports the throughput.
+    public static void main( String[] args ) {
+
+        String[] sections = { "VSAT", "SAT", "ETQ", "CA_1", "CA_2", "CA_3",
+                              "AT_1", "AT_2", "AT_3" } ;
+        String[] qTypes   = { "SCA", "MCA", "NT" } ;
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        for( int chapter=1; chapter<=40; chapter++ ) {
+            for( String qType : qTypes ) {
+                for( String section : sections ) {
+                    for( int q=1; q<=40; q++ ) {
+                        String name = "P_9_PF_" + chapter + "_" + qType + "_" +
+                                      section + "_" + q ;
+                        if( q % 10 == 0 ) {
+                            images.add( new JEEQuestionImage( new File( name + "(1).png" ) ) ) ;
+                            images.add( new JEEQuestionImage( new File( name + "(2).png" ) ) ) ;
+                        }
+                        else {
+                            images.add( new JEEQuestionImage( new File( name + ".png" ) ) ) ;
+                        }
+                    }
+                }
+            }
+            for( int lct=1; lct<=5; lct++ ) {
+                String prefix = "P_9_PF_" + chapter + "_LCT_" + lct ;
+                images.add( new JEEQuestionImage( new File( prefix + ".png" ) ) ) ;
+                for( int q=1; q<=4; q++ ) {
+                    images.add( new JEEQuestionImage(
+                            new File( prefix + "_CA_2_" + q + ".png" ) ) ) ;
+                }
+            }
+        }
+
+        int numWorkers = Runtime.getRuntime().availableProcessors() ;
+        PaperGenerator generator = new PaperGenerator( images, numWorkers ) ;
+
+        PaperProfile profile = new PaperProfile( 3600, 60 ) ;
+        profile.setDifficultyWeight( 2, 3 )
+               .setDifficultyWeight( 3, 2 )
+               .setDifficultyWeight( 5, 1 ) ;
+
+        Pool pool = generator.preparePool( profile ) ;
+        for( int run=0; run<5; run++ ) {
+            long start = System.nanoTime() ;
+            List<TestPaper> papers = generator.generate( pool, 10000, run ) ;
+            long timeTaken = System.nanoTime() - start ;
+
+            System.out.println( papers.size() + " papers in " +
+                                timeTaken/1000000 + " ms - " +
+                                (long)( papers.size()*1e9/timeTaken ) +
+                                " papers/sec" ) ;
+        }
+
+        // One paper at a time, as for an online request
+        for( int run=0; run<3; run++ ) {
+            int numPapers = 0 ;
+            long start = System.nanoTime() ;
+            for( int i=0; i<20000; i++ ) {
+                numPapers += generator.generate( pool, 1, i ).size() ;
+            }
+            long timeTaken = System.nanoTime() - start ;
+
+            System.out.println( numPapers + " single papers in " +
+                                timeTaken/1000000 + " ms - " +
+                                (long)( numPapers*1e9/timeTaken ) +
+                                " papers/sec" ) ;
+        }
+        generator.shutdown() ;
+    }
+}
@@ -0,0 +1,81 @@
+package com.sandy.jeecoach.util;
+
+import java.util.HashSet ;
+import java.util.Set ;
+
+import lombok.Getter ;
+import lombok.Setter ;
+
+/**
+ * The constraints for generating a test paper.
+ *
+ * The total projected time of the questions should be within tolerance of
+ * the target time. The time is split across the difficulty levels in the
+ * ratio of their weights. Levels which don't have a weight are not picked.
+ *
+ * The questions can be restricted to a set of chapters (chapter QRefs as
+ * returned by JEEQuestionImage#getChapterQRef), question types and
+ * section ids. An empty set does not restrict.
+ */
+public class PaperProfile {
+
+    public static final int MAX_DIFFICULTY_LEVEL = 5 ;
+
+    @Getter @Setter private int targetTime = 0 ;
+    @Getter @Setter private int tolerance  = 0 ;
+
+    @Getter private Set<String> chapters   = new HashSet<String>() ;
+    @Getter private Set<String> qTypes     = new HashSet<String>() ;
+    @Getter private Set<String> sectionIds = new HashSet<String>() ;
+
+    private int[] difficultyWeights = new int[MAX_DIFFICULTY_LEVEL + 1] ;
+
+    public PaperProfile( int targetTime, int tolerance ) {
+        this.targetTime = targetTime ;
+        this.tolerance  = tolerance ;
+    }
+
+    public PaperProfile setDifficultyWeight( int level, int weight ) {
+        if( level < 1 || level > MAX_DIFFICULTY_LEVEL ) {
+            throw new IllegalArgumentException(
+                    "Invalid difficulty level " + level ) ;
+        }
+        difficultyWeights[level] = weight ;
+        return this ;
+    }
+
+    public int getDifficultyWeight( int level ) {
+        return difficultyWeights[level] ;
+    }
+
+    // Returns the time to be spent on questions of the given level.
+    public int getTimeBudget( int level ) {
+        int totalWeight = 0 ;
+        for( int weight : difficultyWeights ) {
+            totalWeight += weight ;
+        }
+        if( totalWeight == 0 ) {
+            throw new IllegalStateException( "No difficulty weights set." ) ;
+        }
+        return targetTime * difficultyWeights[level] / totalWeight ;
+    }
+
+    public boolean accepts( PaperQuestion question ) {
+
+        JEEQuestionImage img = question.getQuestionImage() ;
+        if( difficultyWeights[question.getDifficultyLevel()] == 0 ) {
+            return false ;
+        }
+        if( !chapters.isEmpty() && !chapters.contains( img.getChapterQRef() ) ) {
+            return false ;
+        }
+        if( !qTypes.isEmpty() && !qTypes.contains( img.getQuestionType() ) ) {
+            return false ;
+        }
+        if( !sectionIds.isEmpty() &&
+            !sectionIds.contains( img.getQId().getSectionId() ) ) {
+            return false ;
+        }
+        return true ;
+    }
+}
@@ -0,0 +1,62 @@
+package com.sandy.jeecoach.util;
+
+import java.util.Collections ;
+import java.util.List ;
+
+import lombok.Getter ;
+
+/**
+ * A question as picked into a test paper - all the parts of the question
+ * image and, for LCT questions, the parts of the LCT context image. The
+ * parts are never split across papers.
+ */
+public class PaperQuestion implements Comparable<PaperQuestion> {
+
+    @Getter private String qRef = null ;
+    @Getter private List<JEEQuestionImage> parts = null ;
+    @Getter private List<JEEQuestionImage> lctContextParts = null ;
+
+    @Getter private int projectedTime   = 0 ;
+    @Getter private int difficultyLevel = 0 ;
+
+    PaperQuestion( List<JEEQuestionImage> parts,
+                   List<JEEQuestionImage> lctContextParts ) {
+
+        JEEQuestionImage img = parts.get( 0 ) ;
+
+        this.qRef  = img.getQRef() ;
+        this.parts = Collections.unmodifiableList( parts ) ;
+        this.lctContextParts = lctContextParts == null ?
+                               Collections.<JEEQuestionImage>emptyList() :
+                               Collections.unmodifiableList( lctContextParts ) ;
+
+        this.projectedTime   = img.getProjectedTime() ;
+        this.difficultyLevel = img.getDifficultyLevel() ;
+    }
+
+    public JEEQuestionImage getQuestionImage() {
+        return parts.get( 0 ) ;
+    }
+
+    /**
+     * Returns the key of the bucket this question is indexed in. Questions
+     * are bucketed by chapter, question type and section.
+     */
+    public String getBucketKey() {
+        JEEQuestionImage img = getQuestionImage() ;
+        String sectionId = img.getQId().getSectionId() ;
+        return img.getChapterQRef() + img.getQuestionType() + "/" +
+               ( sectionId == null ? "" : sectionId ) ;
+    }
+
+    @Override
+    public int compareTo( PaperQuestion question ) {
+        return JEEQuestionImage.CATALOG_ORDER.compare( getQuestionImage(),
+                                                       question.getQuestionImage() ) ;
+    }
+
+    @Override
+    public String toString() {
+        return qRef ;
+    }
+}
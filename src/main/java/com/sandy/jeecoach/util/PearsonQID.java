@@ -56,6 +56,14 @@ public class PearsonQID extends QID {
         parseQID( parts ) ;
     }
 
+    PearsonQID( JEEQuestionImage qImg, String sectionId, 
+                int subSectionNumber, int questionNumber ) {
+        super( qImg ) ;
+        super.sectionId = sectionId ;
+        this.subSectionNumber = subSectionNumber ;
+        this.questionNumber = questionNumber ;
+    }
+
     private void parseQID( String[] qIdParts ) {
         
         if( qIdParts.length < 2 || qIdParts.length > 3 ) {
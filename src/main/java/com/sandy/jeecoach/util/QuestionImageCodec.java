@@ -0,0 +1,706 @@
+package com.sandy.jeecoach.util;
+
+import java.io.EOFException ;
+import java.io.File ;
+import java.io.IOException ;
+import java.nio.BufferOverflowException ;
+import java.nio.ByteBuffer ;
+import java.nio.channels.ReadableByteChannel ;
+import java.nio.channels.WritableByteChannel ;
+import java.nio.charset.StandardCharsets ;
+import java.util.ArrayList ;
+import java.util.Collection ;
+import java.util.HashMap ;
+import java.util.List ;
+import java.util.Map ;
+
+/**
+ * A compact binary format for shipping parsed question images to other
+ * services, so that they don't have to parse the file names again.
+ *
+ * Stream layout:
+ *
+ *   [magic:int][version:byte]
+ *   [subject dict][qType dict][book dict][section dict]   - Dictionaries
+ *   [record]*                                             - Till end of stream
+ *
+ * A dictionary is a varint count followed by the strings. Each string is a
+ * varint length followed by its UTF-8 bytes. Records refer to subjects,
+ * question types, books and sections by their dictionary index, so a reader
+ * doesn't need to have the same code lists as the writer.
+ *
+ * Record layout:
+ *
+ *   [length:varint][flags:byte]
+ *   <parent path>                                 - If FLAG_PATH_DEF
+ *   <parent path id>                              - If FLAG_PATH
+ *   [subject][standard][book][chapter][qType]     - varints
+ *   <lctSequence>                                 - If FLAG_LCT
+ *   <section><subSection+1><questionNumber>       - If QID is Pearson
+ *   <questionNumber>                              - If QID is MTG reasoning
+ *   <partNumber>                                  - If FLAG_PART
+ *
+ * Parent paths are sent once per stream. The first record in a directory
+ * carries the path itself, which gets the next path id, and the following
+ * records in the directory refer to it by the id.
+ *
+ * The length prefix lets a reader skip a record without decoding it.
+ */
+public class QuestionImageCodec {
+
+    public static final int  MAGIC   = 0x4A514943 ; // JQIC
+    public static final byte VERSION = 2 ;
+
+    private static final int FLAG_LCT      = 0x01 ;
+    private static final int FLAG_PART     = 0x02 ;
+    private static final int FLAG_PATH     = 0x04 ;
+    private static final int FLAG_PATH_DEF = 0x08 ;
+
+    private static final int QID_SHIFT = 4 ;
+    private static final int QID_MASK  = 0x30 ;
+    private static final int QID_NONE  = 0 ;
+    private static final int QID_PF    = 1 ;
+    private static final int QID_MR    = 2 ;
+
+    private static final int MAX_VARINT_SIZE = 5 ;
+    private static final int DEFAULT_BUFFER_SIZE = 64*1024 ;
+
+    // Typical size of a record without the parent path definition
+    private static final int AVG_RECORD_SIZE = 12 ;
+
+    /**
+     * Encodes the images into a buffer which is ready to be read. The
+     * parent path of the image files is included if withPath is true.
+     *
+     * The whole stream is held in memory. Large batches are better written
+     * to a channel with a Writer.
+     */
+    public static ByteBuffer encode( Collection<JEEQuestionImage> images,
+                                     boolean withPath ) {
+
+        Map<String, Integer> pathIds = withPath ?
+                                       new HashMap<String, Integer>() : null ;
+        ByteBuffer record = ByteBuffer.allocate( 256 ) ;
+        ByteBuffer buffer = ByteBuffer.allocate( DEFAULT_BUFFER_SIZE/16 +
+                                        images.size()*AVG_RECORD_SIZE ) ;
+        writeHeader( buffer ) ;
+
+        // Records are encoded once. If the estimate falls short, the bytes
+        // written so far are copied into a bigger buffer.
+        for( JEEQuestionImage img : images ) {
+            record = encodeRecord( img, pathIds, record ) ;
+            if( buffer.remaining() < record.remaining() ) {
+                ByteBuffer bigger = ByteBuffer.allocate(
+                        Math.max( buffer.capacity()*2,
+                                  buffer.position() + record.remaining() ) ) ;
+                buffer.flip() ;
+                bigger.put( buffer ) ;
+                buffer = bigger ;
+            }
+            buffer.put( record ) ;
+        }
+        buffer.flip() ;
+        return buffer ;
+    }
+
+    public static List<JEEQuestionImage> decode( ByteBuffer buffer )
+        throws IOException {
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        Reader reader = new Reader( buffer ) ;
+        while( reader.next() ) {
+            images.add( reader.toQuestionImage() ) ;
+        }
+        return images ;
+    }
+
+    /**
+     * Encodes images to a channel. Records are accumulated in a buffer which
+     * is written to the channel when full and on flush.
+     */
+    public static class Writer {
+
+        private WritableByteChannel channel = null ;
+        private ByteBuffer buffer = null ;
+        private ByteBuffer recordBuffer = ByteBuffer.allocate( 256 ) ;
+        private Map<String, Integer> pathIds = null ;
+
+        public Writer( WritableByteChannel channel, boolean withPath )
+            throws IOException {
+
+            this.channel = channel ;
+            this.pathIds = withPath ? new HashMap<String, Integer>() : null ;
+            this.buffer  = ByteBuffer.allocate( DEFAULT_BUFFER_SIZE ) ;
+
+            writeHeader( buffer ) ;
+        }
+
+        public void write( JEEQuestionImage img ) throws IOException {
+
+            recordBuffer = encodeRecord( img, pathIds, recordBuffer ) ;
+            if( buffer.remaining() < recordBuffer.remaining() ) {
+                flush() ;
+                if( buffer.capacity() < recordBuffer.remaining() ) {
+                    buffer = ByteBuffer.allocate( recordBuffer.remaining() ) ;
+                }
+            }
+            buffer.put( recordBuffer ) ;
+        }
+
+        public void write( Collection<JEEQuestionImage> images )
+            throws IOException {
+            for( JEEQuestionImage img : images ) {
+                write( img ) ;
+            }
+        }
+
+        public void flush() throws IOException {
+            buffer.flip() ;
+            while( buffer.hasRemaining() ) {
+                channel.write( buffer ) ;
+            }
+            buffer.clear() ;
+        }
+    }
+
+    /**
+     * Reads records from a buffer or a channel. The reader is a cursor - each
+     * call to next moves it to the next record, whose fields are decoded
+     * only when first accessed. A parent path string is created once, when
+     * its definition is read. No objects are created per record otherwise.
+     *
+     * Values returned by the getters are valid only till the next call to
+     * next.
+     */
+    public static class Reader {
+
+        private ReadableByteChannel channel = null ;
+        private ByteBuffer buffer = null ;
+
+        private String[] subjects = null ;
+        private String[] qTypes   = null ;
+        private String[] books    = null ;
+        private String[] sections = null ;
+        private List<String> paths = new ArrayList<String>() ;
+
+        private int recordStart = 0 ;
+        private int recordEnd   = 0 ;
+        private int fieldsStart = 0 ;
+        private int flags       = 0 ;
+        private int pathId      = -1 ;
+        private boolean decoded = false ;
+
+        private int subjectId      = 0 ;
+        private int standard       = 0 ;
+        private int bookId         = 0 ;
+        private int chapterNum     = 0 ;
+        private int qTypeId        = 0 ;
+        private int lctSequence    = -1 ;
+        private int sectionId      = -1 ;
+        private int subSectionNum  = -1 ;
+        private int questionNumber = -1 ;
+        private int partNumber     = -1 ;
+
+        public Reader( ByteBuffer buffer ) throws IOException {
+            this.buffer = buffer ;
+            readHeader() ;
+        }
+
+        public Reader( ReadableByteChannel channel ) throws IOException {
+            this.channel = channel ;
+            this.buffer  = ByteBuffer.allocate( DEFAULT_BUFFER_SIZE ) ;
+            this.buffer.flip() ;
+            readHeader() ;
+        }
+
+        /**
+         * Moves to the next record. Returns false at the end of the stream.
+         */
+        public boolean next() throws IOException {
+
+            buffer.position( recordEnd ) ;
+            if( !ensureAvailable( 1 ) ) {
+                return false ;
+            }
+
+            ensureAvailable( MAX_VARINT_SIZE ) ;
+            int length = readVarint( buffer.limit() ) ;
+            if( length < 1 ) {
+                throw new IOException( "Invalid question record length " + length ) ;
+            }
+            if( !ensureAvailable( length ) ) {
+                throw new EOFException( "Truncated question record." ) ;
+            }
+
+            recordStart = buffer.position() ;
+            recordEnd   = recordStart + length ;
+            flags       = buffer.get() ;
+            decoded     = false ;
+
+            // Path definitions are read even if the record is skipped, as
+            // the records which follow refer to them.
+            pathId = -1 ;
+            if( ( flags & FLAG_PATH_DEF ) != 0 ) {
+                int pathLength = readVarint( recordEnd ) ;
+                if( pathLength < 0 || pathLength > recordEnd - buffer.position() ) {
+                    throw new EOFException( "Truncated question record." ) ;
+                }
+                paths.add( getString( buffer.position(), pathLength ) ) ;
+                buffer.position( buffer.position() + pathLength ) ;
+                pathId = paths.size() - 1 ;
+            }
+            else if( ( flags & FLAG_PATH ) != 0 ) {
+                pathId = readVarint( recordEnd ) ;
+                if( pathId < 0 || pathId >= paths.size() ) {
+                    throw new IOException( "Undefined parent path " + pathId ) ;
+                }
+            }
+            fieldsStart = buffer.position() ;
+            return true ;
+        }
+
+        public String getSubjectCode() throws IOException {
+            decodeFields() ;
+            return subjects[subjectId] ;
+        }
+
+        public int getStandard() throws IOException {
+            decodeFields() ;
+            return standard ;
+        }
+
+        public String getBookCode() throws IOException {
+            decodeFields() ;
+            return books[bookId] ;
+        }
+
+        public int getChapterNum() throws IOException {
+            decodeFields() ;
+            return chapterNum ;
+        }
+
+        public String getQuestionType() throws IOException {
+            decodeFields() ;
+            return qTypes[qTypeId] ;
+        }
+
+        public int getLctSequence() throws IOException {
+            decodeFields() ;
+            return lctSequence ;
+        }
+
+        public boolean isLCTContext() {
+            return ( flags & FLAG_LCT ) != 0 && getQIDType() == QID_NONE ;
+        }
+
+        public String getSectionId() throws IOException {
+            decodeFields() ;
+            return sectionId == -1 ? null : sections[sectionId] ;
+        }
+
+        public int getSubSectionNumber() throws IOException {
+            decodeFields() ;
+            return subSectionNum ;
+        }
+
+        public int getQuestionNumber() throws IOException {
+            decodeFields() ;
+            return questionNumber ;
+        }
+
+        public int getPartNumber() throws IOException {
+            decodeFields() ;
+            return partNumber ;
+        }
+
+        public boolean isPart() {
+            return ( flags & FLAG_PART ) != 0 ;
+        }
+
+        public String getParentPath() {
+            return pathId == -1 ? null : paths.get( pathId ) ;
+        }
+
+        public String getFileName() throws IOException {
+
+            StringBuilder sb = new StringBuilder() ;
+            sb.append( getSubjectCode() ).append( "_" )
+              .append( standard ).append( "_" )
+              .append( getBookCode() ).append( "_" )
+              .append( chapterNum ).append( "_" )
+              .append( getQuestionType() ) ;
+
+            if( lctSequence != -1 ) {
+                sb.append( "_" ).append( lctSequence ) ;
+            }
+
+            switch( getQIDType() ) {
+                case QID_PF:
+                    sb.append( "_" ).append( sections[sectionId] ) ;
+                    if( subSectionNum != -1 ) {
+                        sb.append( "_" ).append( subSectionNum ) ;
+                    }
+                    sb.append( "_" ).append( questionNumber ) ;
+                    break ;
+
+                case QID_MR:
+                    sb.append( "_" ).append( questionNumber ) ;
+                    break ;
+            }
+
+            if( partNumber != -1 ) {
+                sb.append( "(" ).append( partNumber ).append( ")" ) ;
+            }
+            sb.append( ".png" ) ;
+
+            return sb.toString() ;
+        }
+
+        /**
+         * Materializes the current record. The fields are taken as decoded,
+         * the file name is not parsed again.
+         */
+        public JEEQuestionImage toQuestionImage() throws IOException {
+
+            File file = new File( getParentPath(), getFileName() ) ;
+            JEEQuestionImage img = new JEEQuestionImage( file,
+                    subjects[subjectId], standard, books[bookId], chapterNum,
+                    qTypes[qTypeId], lctSequence, partNumber ) ;
+
+            switch( getQIDType() ) {
+                case QID_PF:
+                    img.attachQId( new PearsonQID( img, sections[sectionId],
+                                            subSectionNum, questionNumber ) ) ;
+                    break ;
+
+                case QID_MR:
+                    img.attachQId( new MTGReasoningQID( img, questionNumber ) ) ;
+                    break ;
+            }
+            return img ;
+        }
+
+        private int getQIDType() {
+            return ( flags & QID_MASK ) >> QID_SHIFT ;
+        }
+
+        // Decodes the fields of the current record. The record is rejected
+        // if a field runs past its end or refers to a dictionary entry which
+        // does not exist.
+        private void decodeFields() throws IOException {
+
+            if( decoded ) {
+                return ;
+            }
+
+            int savedPos = buffer.position() ;
+            buffer.position( fieldsStart ) ;
+            try {
+                subjectId  = checkId( readVarint( recordEnd ), subjects, "subject" ) ;
+                standard   = readVarint( recordEnd ) ;
+                bookId     = checkId( readVarint( recordEnd ), books, "book" ) ;
+                chapterNum = readVarint( recordEnd ) ;
+                qTypeId    = checkId( readVarint( recordEnd ), qTypes, "question type" ) ;
+
+                lctSequence = ( flags & FLAG_LCT ) != 0 ? readVarint( recordEnd ) : -1 ;
+
+                sectionId      = -1 ;
+                subSectionNum  = -1 ;
+                questionNumber = -1 ;
+                switch( getQIDType() ) {
+                    case QID_PF:
+                        sectionId      = checkId( readVarint( recordEnd ), sections, "section" ) ;
+                        subSectionNum  = readVarint( recordEnd ) - 1 ;
+                        questionNumber = readVarint( recordEnd ) ;
+                        break ;
+
+                    case QID_MR:
+                        questionNumber = readVarint( recordEnd ) ;
+                        break ;
+
+                    case QID_NONE:
+                        break ;
+
+                    default:
+                        throw new IOException( "Invalid QID type " + getQIDType() ) ;
+                }
+
+                partNumber = ( flags & FLAG_PART ) != 0 ? readVarint( recordEnd ) : -1 ;
+                decoded = true ;
+            }
+            finally {
+                buffer.position( savedPos ) ;
+            }
+        }
+
+        private int checkId( int id, String[] dict, String name )
+            throws IOException {
+
+            if( id < 0 || id >= dict.length ) {
+                throw new IOException( "Invalid " + name + " id " + id ) ;
+            }
+            return id ;
+        }
+
+        // Reads a varint from the current position, which must end before
+        // the limit.
+        private int readVarint( int limit ) throws IOException {
+
+            int value = 0 ;
+            for( int shift=0; shift<32; shift+=7 ) {
+                if( buffer.position() >= limit ) {
+                    throw new EOFException( "Truncated question record." ) ;
+                }
+                byte b = buffer.get() ;
+                value |= ( b & 0x7F ) << shift ;
+                if( ( b & 0x80 ) == 0 ) {
+                    return value ;
+                }
+            }
+            throw new IOException( "Malformed varint." ) ;
+        }
+
+        private void readHeader() throws IOException {
+
+            if( !ensureAvailable( 5 ) ) {
+                throw new EOFException( "Missing question stream header." ) ;
+            }
+
+            if( buffer.getInt() != MAGIC ) {
+                throw new IOException( "Not a question image stream." ) ;
+            }
+
+            byte version = buffer.get() ;
+            if( version != VERSION ) {
+                throw new IOException( "Unsupported question stream version " +
+                                       version ) ;
+            }
+
+            subjects = readDictionary() ;
+            qTypes   = readDictionary() ;
+            books    = readDictionary() ;
+            sections = readDictionary() ;
+
+            recordEnd = buffer.position() ;
+        }
+
+        private String[] readDictionary() throws IOException {
+
+            ensureAvailable( MAX_VARINT_SIZE ) ;
+            int size = readVarint( buffer.limit() ) ;
+            if( size < 0 ) {
+                throw new IOException( "Invalid dictionary size " + size ) ;
+            }
+
+            String[] dict = new String[size] ;
+            for( int i=0; i<dict.length; i++ ) {
+                ensureAvailable( MAX_VARINT_SIZE ) ;
+                int length = readVarint( buffer.limit() ) ;
+                if( length < 0 || !ensureAvailable( length ) ) {
+                    throw new EOFException( "Truncated dictionary." ) ;
+                }
+                dict[i] = getString( buffer.position(), length ) ;
+                buffer.position( buffer.position() + length ) ;
+            }
+            return dict ;
+        }
+
+        private String getString( int start, int length ) {
+            if( buffer.hasArray() ) {
+                return new String( buffer.array(),
+                                   buffer.arrayOffset() + start, length,
+                                   StandardCharsets.UTF_8 ) ;
+            }
+
+            byte[] bytes = new byte[length] ;
+            ByteBuffer dup = buffer.duplicate() ;
+            dup.position( start ) ;
+            dup.get( bytes ) ;
+            return new String( bytes, StandardCharsets.UTF_8 ) ;
+        }
+
+        // Makes sure that at least numBytes are available from the current
+        // position, reading more from the channel if needed. Returns false
+        // if the stream ends before that.
+        private boolean ensureAvailable( int numBytes ) throws IOException {
+
+            if( buffer.remaining() >= numBytes ) {
+                return true ;
+            }
+            if( channel == null ) {
+                return false ;
+            }
+
+            // Records before the current position have been consumed
+            int consumed = buffer.position() ;
+            buffer.compact() ;
+            recordEnd   -= consumed ;
+            recordStart -= consumed ;
+
+            if( buffer.capacity() < numBytes ) {
+                buffer.flip() ;
+                ByteBuffer bigger = ByteBuffer.allocate(
+                                        Math.max( numBytes, buffer.capacity()*2 ) ) ;
+                bigger.put( buffer ) ;
+                buffer = bigger ;
+            }
+
+            while( buffer.position() < numBytes ) {
+                if( channel.read( buffer ) == -1 ) {
+                    break ;
+                }
+            }
+            buffer.flip() ;
+            return buffer.remaining() >= numBytes ;
+        }
+    }
+
+    private static void writeHeader( ByteBuffer buffer ) {
+
+        buffer.putInt( MAGIC ) ;
+        buffer.put( VERSION ) ;
+
+        writeDictionary( JEEQuestionImage.SUB_SEQ, buffer ) ;
+        writeDictionary( JEEQuestionImage.Q_TYPE_SEQ, buffer ) ;
+        writeDictionary( JEEBookCode.BOOK_CD_LIST, buffer ) ;
+        writeDictionary( PearsonQID.SECTION_SEQ, buffer ) ;
+    }
+
+    private static void writeDictionary( List<String> dict, ByteBuffer buffer ) {
+        writeVarint( dict.size(), buffer ) ;
+        for( String str : dict ) {
+            writeString( str, buffer ) ;
+        }
+    }
+
+    // Encodes a record into the buffer, which is replaced by a bigger one if
+    // the record doesn't fit. Returns the buffer, ready to be read. Parent
+    // paths are written if pathIds is not null, which tracks the paths
+    // already defined in the stream.
+    private static ByteBuffer encodeRecord( JEEQuestionImage img,
+                                            Map<String, Integer> pathIds,
+                                            ByteBuffer buffer ) {
+        while( true ) {
+            try {
+                buffer.clear() ;
+                writeRecord( img, pathIds, buffer ) ;
+                buffer.flip() ;
+                return buffer ;
+            }
+            catch( BufferOverflowException e ) {
+                buffer = ByteBuffer.allocate( buffer.capacity()*2 ) ;
+            }
+        }
+    }
+
+    private static void writeRecord( JEEQuestionImage img,
+                                     Map<String, Integer> pathIds,
+                                     ByteBuffer buffer ) {
+
+        // The length is not known till the record is written. Reserve the
+        // maximum varint size and move the record back once it is known.
+        int lengthPos = buffer.position() ;
+        if( buffer.remaining() < MAX_VARINT_SIZE ) {
+            throw new BufferOverflowException() ;
+        }
+        buffer.position( lengthPos + MAX_VARINT_SIZE ) ;
+        int recordStart = buffer.position() ;
+
+        QID qId = img.getQId() ;
+        int qIdType = QID_NONE ;
+        if( qId instanceof PearsonQID ) {
+            qIdType = QID_PF ;
+        }
+        else if( qId instanceof MTGReasoningQID ) {
+            qIdType = QID_MR ;
+        }
+
+        String parentPath = null ;
+        Integer pathId = null ;
+        if( pathIds != null ) {
+            parentPath = img.getImgFile().getParent() ;
+            if( parentPath != null ) {
+                pathId = pathIds.get( parentPath ) ;
+            }
+        }
+
+        int flags = qIdType << QID_SHIFT ;
+        if( img.getLctSequence() != -1 ) flags |= FLAG_LCT ;
+        if( img.isPart() )               flags |= FLAG_PART ;
+        if( pathId != null )             flags |= FLAG_PATH ;
+        else if( parentPath != null )    flags |= FLAG_PATH_DEF ;
+        buffer.put( (byte)flags ) ;
+
+        if( pathId != null ) {
+            writeVarint( pathId, buffer ) ;
+        }
+        else if( parentPath != null ) {
+            writeString( parentPath, buffer ) ;
+        }
+
+        writeVarint( indexOf( JEEQuestionImage.SUB_SEQ, img.getSubjectCode() ), buffer ) ;
+        writeVarint( img.getStandard(), buffer ) ;
+        writeVarint( indexOf( JEEBookCode.BOOK_CD_LIST, img.getBookCode() ), buffer ) ;
+        writeVarint( img.getChapterNum(), buffer ) ;
+        writeVarint( indexOf( JEEQuestionImage.Q_TYPE_SEQ, img.getQuestionType() ), buffer ) ;
+
+        if( img.getLctSequence() != -1 ) {
+            writeVarint( img.getLctSequence(), buffer ) ;
+        }
+
+        if( qIdType == QID_PF ) {
+            PearsonQID pfQId = ( PearsonQID )qId ;
+            writeVarint( pfQId.getSecSeq(), buffer ) ;
+            writeVarint( pfQId.getSubSectionNumber() + 1, buffer ) ;
+            writeVarint( pfQId.getQuestionNumber(), buffer ) ;
+        }
+        else if( qIdType == QID_MR ) {
+            writeVarint( (( MTGReasoningQID )qId).getQuestionNumber(), buffer ) ;
+        }
+
+        if( img.isPart() ) {
+            writeVarint( img.getPartNumber(), buffer ) ;
+        }
+
+        int recordEnd = buffer.position() ;
+        int length = recordEnd - recordStart ;
+
+        buffer.position( lengthPos ) ;
+        writeVarint( length, buffer ) ;
+
+        // The buffers are heap buffers, for which the overlapping copy is safe
+        if( buffer.position() != recordStart ) {
+            ByteBuffer record = buffer.duplicate() ;
+            record.limit( recordEnd ).position( recordStart ) ;
+            buffer.put( record ) ;
+        }
+
+        // The path is registered only once the record is complete, so that
+        // a record retried in a bigger buffer defines it again.
+        if( pathId == null && parentPath != null ) {
+            pathIds.put( parentPath, pathIds.size() ) ;
+        }
+    }
+
+    private static int indexOf( List<String> dict, String value ) {
+        int index = dict.indexOf( value ) ;
+        if( index == -1 ) {
+            throw new IllegalArgumentException( value + " is not a known code." ) ;
+        }
+        return index ;
+    }
+
+    private static void writeString( String str, ByteBuffer buffer ) {
+        byte[] bytes = str.getBytes( StandardCharsets.UTF_8 ) ;
+        writeVarint( bytes.length, buffer ) ;
+        buffer.put( bytes ) ;
+    }
+
+    static void writeVarint( int value, ByteBuffer buffer ) {
+        while( ( value & ~0x7F ) != 0 ) {
+            buffer.put( (byte)( ( value & 0x7F ) | 0x80 ) ) ;
+            value >>>= 7 ;
+        }
+        buffer.put( (byte)value ) ;
+    }
+}
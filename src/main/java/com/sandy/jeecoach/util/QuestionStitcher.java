@@ -0,0 +1,297 @@
+package com.sandy.jeecoach.util;
+
+import java.awt.image.BufferedImage ;
+import java.io.BufferedOutputStream ;
+import java.io.File ;
+import java.io.FileOutputStream ;
+import java.io.IOException ;
+import java.nio.charset.StandardCharsets ;
+import java.nio.file.Files ;
+import java.nio.file.StandardCopyOption ;
+import java.security.MessageDigest ;
+import java.security.NoSuchAlgorithmException ;
+import java.util.Iterator ;
+import java.util.List ;
+import java.util.concurrent.ArrayBlockingQueue ;
+import java.util.concurrent.Callable ;
+import java.util.concurrent.ConcurrentHashMap ;
+import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.Future ;
+import java.util.concurrent.FutureTask ;
+import java.util.concurrent.RejectedExecutionException ;
+import java.util.concurrent.RejectedExecutionHandler ;
+import java.util.concurrent.ThreadPoolExecutor ;
+import java.util.concurrent.TimeUnit ;
+
+import javax.imageio.ImageIO ;
+import javax.imageio.ImageReader ;
+import javax.imageio.stream.ImageInputStream ;
+
+/**
+ * Stitches the parts of a multipart question - name(1).png, name(2).png...
+ * vertically into one tall image.
+ *
+ * The stitched images are cached in a directory. The name of a cached image
+ * is <hash of QRef>-<hash of the name, size and modification time of each
+ * part>, so a part which is modified after stitching results in a new cache
+ * entry being created instead of the stale one being served. Once the new
+ * entry is written, the older entries for the same QRef are deleted.
+ *
+ * The cache is keyed on the part files and not on their content - hashing
+ * the content would need every part to be read on every request. As a
+ * result identical images under different paths are stitched and cached
+ * separately, and moving the source directory invalidates its entries.
+ *
+ * Only one decoded part is held in memory at a time. The part dimensions
+ * are read from the image headers, after which each part is decoded and
+ * its rows streamed into the output PNG before the next part is decoded.
+ *
+ * Stitching runs on a bounded pool of workers. If the work queue is full
+ * the requesting thread does the stitching itself. Once the stitcher is
+ * shut down, new stitch requests are rejected.
+ */
+public class QuestionStitcher {
+
+    private static final int BG_COLOR = 0xFFFFFFFF ;
+    private static final int QUEUE_SIZE = 256 ;
+
+    private File cacheDir = null ;
+    private ThreadPoolExecutor executor = null ;
+
+    // Stitch requests being processed, keyed by the cache key. Ensures that
+    // concurrent requests for the same question are stitched only once.
+    private ConcurrentHashMap<String, Future<File>> inProgress =
+                                new ConcurrentHashMap<String, Future<File>>() ;
+
+    public QuestionStitcher( File cacheDir, int numWorkers ) {
+
+        if( !cacheDir.exists() && !cacheDir.mkdirs() ) {
+            throw new IllegalArgumentException(
+                    "Can't create cache directory " + cacheDir ) ;
+        }
+
+        this.cacheDir = cacheDir ;
+        this.executor = new ThreadPoolExecutor(
+                numWorkers, numWorkers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>( QUEUE_SIZE ),
+                new CallerRunsUnlessShutdown() ) ;
+    }
+
+    /**
+     * Returns the stitched image file for the parts of a question. The parts
+     * should be in the order returned by JEEQuestionImage#groupParts. If
+     * there is only one part, its own image file is returned.
+     *
+     * Throws RejectedExecutionException if the stitcher has been shut down.
+     */
+    public Future<File> stitch( final List<JEEQuestionImage> parts ) {
+
+        if( parts.isEmpty() ) {
+            throw new IllegalArgumentException( "No parts to stitch." ) ;
+        }
+
+        if( parts.size() == 1 ) {
+            return completed( parts.get( 0 ).getImgFile() ) ;
+        }
+
+        final String qRefKey = sha1Hex( parts.get( 0 ).getQRef() ) ;
+        final String key = qRefKey + "-" + getVersionKey( parts ) ;
+        final File cacheFile = new File( cacheDir, key + ".png" ) ;
+
+        // Cache hits are served without going through the work queue
+        if( cacheFile.exists() ) {
+            return completed( cacheFile ) ;
+        }
+
+        FutureTask<File> task = new FutureTask<File>( new Callable<File>() {
+            public File call() throws IOException {
+                try {
+                    if( !cacheFile.exists() ) {
+                        stitchParts( parts, cacheFile ) ;
+                        removeStaleEntries( qRefKey, cacheFile ) ;
+                    }
+                    return cacheFile ;
+                }
+                finally {
+                    inProgress.remove( key ) ;
+                }
+            }
+        } ) ;
+
+        Future<File> future = inProgress.putIfAbsent( key, task ) ;
+        if( future != null ) {
+            return future ;
+        }
+
+        try {
+            executor.execute( task ) ;
+        }
+        catch( RejectedExecutionException e ) {
+            inProgress.remove( key, task ) ;
+            throw e ;
+        }
+        return task ;
+    }
+
+    public File stitchAndWait( List<JEEQuestionImage> parts )
+        throws IOException {
+
+        try {
+            return stitch( parts ).get() ;
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt() ;
+            throw new IOException( "Interrupted while stitching.", e ) ;
+        }
+        catch( ExecutionException e ) {
+            if( e.getCause() instanceof IOException ) {
+                throw (IOException)e.getCause() ;
+            }
+            throw new IOException( "Stitching failed.", e.getCause() ) ;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown() ;
+    }
+
+    private static Future<File> completed( final File file ) {
+
+        FutureTask<File> task = new FutureTask<File>( new Callable<File>() {
+            public File call() {
+                return file ;
+            }
+        } ) ;
+        task.run() ;
+        return task ;
+    }
+
+    // Deletes the cache entries of older versions of the question
+    private void removeStaleEntries( String qRefKey, File cacheFile ) {
+
+        File[] files = cacheDir.listFiles() ;
+        if( files == null ) {
+            return ;
+        }
+
+        String prefix = qRefKey + "-" ;
+        for( File file : files ) {
+            if( file.getName().startsWith( prefix ) &&
+                !file.getName().equals( cacheFile.getName() ) ) {
+                file.delete() ;
+            }
+        }
+    }
+
+    // Runs the task in the requesting thread if the queue is full. The
+    // CallerRunsPolicy silently drops the task after shutdown, which would
+    // leave the requester waiting forever, so that case is rejected.
+    private static class CallerRunsUnlessShutdown
+        implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution( Runnable task,
+                                       ThreadPoolExecutor executor ) {
+            if( executor.isShutdown() ) {
+                throw new RejectedExecutionException(
+                        "Question stitcher has been shut down." ) ;
+            }
+            task.run() ;
+        }
+    }
+
+    private void stitchParts( List<JEEQuestionImage> parts, File cacheFile )
+        throws IOException {
+
+        int width  = 0 ;
+        int height = 0 ;
+        for( JEEQuestionImage part : parts ) {
+            int[] size = readDimensions( part.getImgFile() ) ;
+            width   = Math.max( width, size[0] ) ;
+            height += size[1] ;
+        }
+
+        // Write to a temporary file first so that a partially written image
+        // is never seen as a cache hit.
+        File tempFile = File.createTempFile( "stitch", ".tmp", cacheDir ) ;
+        try {
+            int[] row = new int[width] ;
+            try( PNGStreamWriter writer = new PNGStreamWriter(
+                    new BufferedOutputStream( new FileOutputStream( tempFile ) ),
+                    width, height ) ) {
+
+                for( JEEQuestionImage part : parts ) {
+                    BufferedImage img = ImageIO.read( part.getImgFile() ) ;
+                    if( img == null ) {
+                        throw new IOException( "Can't decode " + part.getImgFile() ) ;
+                    }
+
+                    for( int y=0; y<img.getHeight(); y++ ) {
+                        img.getRGB( 0, y, img.getWidth(), 1, row, 0, width ) ;
+                        writer.writeRow( row, img.getWidth(), BG_COLOR ) ;
+                    }
+                }
+            }
+            Files.move( tempFile.toPath(), cacheFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE ) ;
+        }
+        finally {
+            tempFile.delete() ;
+        }
+    }
+
+    private int[] readDimensions( File file ) throws IOException {
+
+        try( ImageInputStream iis = ImageIO.createImageInputStream( file ) ) {
+            if( iis == null ) {
+                throw new IOException( "Can't read " + file ) ;
+            }
+
+            Iterator<ImageReader> readers = ImageIO.getImageReaders( iis ) ;
+            if( !readers.hasNext() ) {
+                throw new IOException( "No image reader for " + file ) ;
+            }
+
+            ImageReader reader = readers.next() ;
+            try {
+                reader.setInput( iis, true, true ) ;
+                return new int[]{ reader.getWidth( 0 ), reader.getHeight( 0 ) } ;
+            }
+            finally {
+                reader.dispose() ;
+            }
+        }
+    }
+
+    // Identifies the version of the parts by their path, size and
+    // modification time. The content is not read.
+    private String getVersionKey( List<JEEQuestionImage> parts ) {
+
+        StringBuilder sb = new StringBuilder() ;
+        for( JEEQuestionImage part : parts ) {
+            File file = part.getImgFile() ;
+            sb.append( "|" ).append( file.getAbsolutePath() )
+              .append( "|" ).append( file.length() )
+              .append( "|" ).append( file.lastModified() ) ;
+        }
+        return sha1Hex( sb.toString() ) ;
+    }
+
+    private static String sha1Hex( String str ) {
+
+        try {
+            MessageDigest md = MessageDigest.getInstance( "SHA-1" ) ;
+            byte[] digest = md.digest( str.getBytes( StandardCharsets.UTF_8 ) ) ;
+
+            StringBuilder hex = new StringBuilder() ;
+            for( byte b : digest ) {
+                hex.append( String.format( "%02x", b ) ) ;
+            }
+            return hex.toString() ;
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e ) ;
+        }
+    }
+}
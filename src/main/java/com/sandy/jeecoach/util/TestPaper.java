@@ -0,0 +1,64 @@
+package com.sandy.jeecoach.util;
+
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.HashSet ;
+import java.util.List ;
+import java.util.Set ;
+
+import lombok.Getter ;
+
+/**
+ * A generated test paper. Questions are in catalog order.
+ */
+public class TestPaper {
+
+    @Getter private List<PaperQuestion> questions = null ;
+    @Getter private int totalTime = 0 ;
+
+    TestPaper( List<PaperQuestion> questions ) {
+        this.questions = new ArrayList<PaperQuestion>( questions ) ;
+        Collections.sort( this.questions ) ;
+
+        for( PaperQuestion question : this.questions ) {
+            totalTime += question.getProjectedTime() ;
+        }
+    }
+
+    /**
+     * Returns the images to be shown, in order. An LCT context shared by
+     * more than one question is shown once, before the first of them.
+     */
+    public List<JEEQuestionImage> getImages() {
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        Set<String> lctContextsShown = new HashSet<String>() ;
+
+        for( PaperQuestion question : questions ) {
+            if( !question.getLctContextParts().isEmpty() ) {
+                String ctxQRef = question.getQuestionImage().getLCTCtxQRef() ;
+                if( lctContextsShown.add( ctxQRef ) ) {
+                    images.addAll( question.getLctContextParts() ) ;
+                }
+            }
+            images.addAll( question.getParts() ) ;
+        }
+        return images ;
+    }
+
+    public int getDifficultyTime( int level ) {
+        int time = 0 ;
+        for( PaperQuestion question : questions ) {
+            if( question.getDifficultyLevel() == level ) {
+                time += question.getProjectedTime() ;
+            }
+        }
+        return time ;
+    }
+
+    @Override
+    public String toString() {
+        return "TestPaper[" + questions.size() + " questions, " +
+               totalTime + "s] " + questions ;
+    }
+}
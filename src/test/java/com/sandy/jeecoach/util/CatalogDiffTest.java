@@ -0,0 +1,220 @@
+package com.sandy.jeecoach.util;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.File ;
+import java.util.ArrayList ;
+import java.util.Arrays ;
+import java.util.Collections ;
+import java.util.List ;
+
+import org.junit.Test ;
+
+public class CatalogDiffTest {
+
+    private static CatalogEntry entry( String fileName, long size, long checksum ) {
+        return new CatalogEntry( new JEEQuestionImage( new File( fileName ) ),
+                                 size, checksum ) ;
+    }
+
+    private static CatalogEntry entry( String fileName, long size ) {
+        return entry( fileName, size, CatalogEntry.NO_CHECKSUM ) ;
+    }
+
+    private static CatalogDiffReport diff( List<CatalogEntry> oldEntries,
+                                           List<CatalogEntry> newEntries ) {
+
+        CatalogDiffReport report = new CatalogDiffReport() ;
+        new CatalogDiff( report ).diff( oldEntries.iterator(),
+                                        newEntries.iterator() ) ;
+        return report ;
+    }
+
+    private static List<CatalogEntry> sorted( CatalogEntry... entries ) {
+        List<CatalogEntry> list = new ArrayList<CatalogEntry>( Arrays.asList( entries ) ) ;
+        Collections.sort( list ) ;
+        return list ;
+    }
+
+    @Test
+    public void identicalSnapshotsHaveNoChanges() {
+
+        List<CatalogEntry> entries = sorted(
+                entry( "P_9_PF_1_SCA_VSAT_1.png", 10 ),
+                entry( "P_9_PF_1_SCA_VSAT_2.png", 20 ) ) ;
+
+        assertTrue( diff( entries, entries ).isEmpty() ) ;
+    }
+
+    @Test
+    public void renamePairedBySize() {
+
+        List<CatalogEntry> oldEntries = sorted(
+                entry( "P_9_PF_1_SCA_VSAT_1.png", 10 ),
+                entry( "P_9_PF_1_SCA_VSAT_2.png", 20 ),
+                entry( "P_9_PF_1_SCA_VSAT_3.png", 30 ) ) ;
+
+        List<CatalogEntry> newEntries = sorted(
+                entry( "P_9_PF_1_SCA_VSAT_1.png", 10 ),
+                entry( "P_9_PF_1_SCA_VSAT_7.png", 20 ),
+                entry( "P_9_PF_1_SCA_VSAT_8.png", 40 ) ) ;
+
+        CatalogDiffReport.Group group = diff( oldEntries, newEntries )
+                                            .getGroup( "P/9/PF/1/" ) ;
+
+        assertEquals( 1, group.getRenamed().size() ) ;
+        assertEquals( "P_9_PF_1_SCA_VSAT_2.png -> P_9_PF_1_SCA_VSAT_7.png",
+                      group.getRenamed().get( 0 ).toString() ) ;
+
+        assertEquals( 1, group.getRemoved().size() ) ;
+        assertEquals( "P_9_PF_1_SCA_VSAT_3.png", group.getRemoved().get( 0 ).getPath() ) ;
+
+        assertEquals( 1, group.getAdded().size() ) ;
+        assertEquals( "P_9_PF_1_SCA_VSAT_8.png", group.getAdded().get( 0 ).getPath() ) ;
+    }
+
+    @Test
+    public void renamePairedByChecksum() {
+
+        // Same sizes, so only the checksums tell which went where
+        List<CatalogEntry> oldEntries = sorted(
+                entry( "P_9_PF_1_SCA_VSAT_1.png", 10, 111 ),
+                entry( "P_9_PF_1_SCA_VSAT_2.png", 10, 222 ) ) ;
+
+        List<CatalogEntry> newEntries = sorted(
+                entry( "P_9_PF_1_SCA_VSAT_5.png", 10, 222 ),
+                entry( "P_9_PF_1_SCA_VSAT_6.png", 10, 111 ),
+                entry( "P_9_PF_1_SCA_VSAT_7.png", 10, 333 ) ) ;
+
+        CatalogDiffReport.Group group = diff( oldEntries, newEntries )
+                                            .getGroup( "P/9/PF/1/" ) ;
+
+        assertEquals( 2, group.getRenamed().size() ) ;
+        assertEquals( "P_9_PF_1_SCA_VSAT_1.png -> P_9_PF_1_SCA_VSAT_6.png",
+                      group.getRenamed().get( 0 ).toString() ) ;
+        assertEquals( "P_9_PF_1_SCA_VSAT_2.png -> P_9_PF_1_SCA_VSAT_5.png",
+                      group.getRenamed().get( 1 ).toString() ) ;
+
+        assertTrue( group.getRemoved().isEmpty() ) ;
+        assertEquals( 1, group.getAdded().size() ) ;
+        assertEquals( "P_9_PF_1_SCA_VSAT_7.png", group.getAdded().get( 0 ).getPath() ) ;
+    }
+
+    @Test
+    public void differentChecksumIsNotRename() {
+
+        List<CatalogEntry> oldEntries = sorted( entry( "P_9_PF_1_SCA_VSAT_1.png", 10, 111 ) ) ;
+        List<CatalogEntry> newEntries = sorted( entry( "P_9_PF_1_SCA_VSAT_2.png", 10, 222 ) ) ;
+
+        CatalogDiffReport.Group group = diff( oldEntries, newEntries )
+                                            .getGroup( "P/9/PF/1/" ) ;
+        assertTrue( group.getRenamed().isEmpty() ) ;
+        assertEquals( 1, group.getRemoved().size() ) ;
+        assertEquals( 1, group.getAdded().size() ) ;
+    }
+
+    @Test
+    public void changesFlushedPerChapter() {
+
+        List<CatalogEntry> oldEntries = sorted(
+                entry( "P_9_PF_1_SCA_VSAT_1.png", 10 ),
+                entry( "P_9_PF_2_SCA_VSAT_1.png", 10 ),
+                entry( "P_9_PF_3_SCA_VSAT_1.png", 10 ) ) ;
+
+        // Same size in another chapter is not a rename
+        List<CatalogEntry> newEntries = sorted(
+                entry( "P_9_PF_2_SCA_VSAT_1.png", 10 ),
+                entry( "P_9_PF_3_SCA_VSAT_1.png", 10 ),
+                entry( "P_9_PF_4_SCA_VSAT_1.png", 10 ) ) ;
+
+        CatalogDiffReport report = diff( oldEntries, newEntries ) ;
+
+        List<String> prefixes = new ArrayList<String>() ;
+        for( CatalogDiffReport.Group group : report.getGroups() ) {
+            prefixes.add( group.getQRefPrefix() ) ;
+        }
+        assertEquals( Arrays.asList( "P/9/PF/1/", "P/9/PF/4/" ), prefixes ) ;
+        assertNull( report.getGroup( "P/9/PF/2/" ) ) ;
+
+        assertEquals( 1, report.getGroup( "P/9/PF/1/" ).getRemoved().size() ) ;
+        assertTrue( report.getGroup( "P/9/PF/1/" ).getRenamed().isEmpty() ) ;
+        assertEquals( 1, report.getGroup( "P/9/PF/4/" ).getAdded().size() ) ;
+    }
+
+    @Test
+    public void listenerSeesEachGroupOnce() {
+
+        final List<String> events = new ArrayList<String>() ;
+        CatalogDiff diff = new CatalogDiff( new CatalogDiff.Listener() {
+            public void groupStarted( String qRefPrefix ) { events.add( "[" + qRefPrefix ) ; }
+            public void renamed( CatalogDiff.Rename rename ) { events.add( "~" ) ; }
+            public void removed( CatalogEntry entry ) { events.add( "-" ) ; }
+            public void added( CatalogEntry entry ) { events.add( "+" ) ; }
+            public void groupEnded( String qRefPrefix ) { events.add( "]" ) ; }
+        } ) ;
+
+        diff.diff( sorted( entry( "P_9_PF_1_SCA_VSAT_1.png", 10 ),
+                           entry( "P_9_PF_1_SCA_VSAT_2.png", 20 ),
+                           entry( "C_9_PF_1_SCA_VSAT_1.png", 10 ) ).iterator(),
+                   sorted( entry( "P_9_PF_1_SCA_VSAT_3.png", 10 ),
+                           entry( "C_9_PF_1_SCA_VSAT_1.png", 10 ),
+                           entry( "C_9_PF_1_SCA_VSAT_2.png", 20 ) ).iterator() ) ;
+
+        assertEquals( Arrays.asList( "[P/9/PF/1/", "~", "-", "]",
+                                     "[C/9/PF/1/", "+", "]" ), events ) ;
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void unsortedInputRejected() {
+
+        List<CatalogEntry> unsorted = new ArrayList<CatalogEntry>() ;
+        unsorted.add( entry( "P_9_PF_1_SCA_VSAT_2.png", 10 ) ) ;
+        unsorted.add( entry( "P_9_PF_1_SCA_VSAT_1.png", 10 ) ) ;
+
+        diff( sorted(), unsorted ) ;
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void duplicateEntryRejected() {
+
+        List<CatalogEntry> entries = new ArrayList<CatalogEntry>() ;
+        entries.add( entry( "P_9_PF_1_SCA_VSAT_1.png", 10 ) ) ;
+        entries.add( entry( "P_9_PF_1_SCA_VSAT_1.png", 10 ) ) ;
+
+        diff( entries, sorted() ) ;
+    }
+
+    @Test
+    public void lctContextsOrderConsistently() {
+
+        JEEQuestionImage ctx1 = new JEEQuestionImage( new File( "P_9_PF_1_LCT_1.png" ) ) ;
+        JEEQuestionImage ctx2 = new JEEQuestionImage( new File( "P_9_PF_1_LCT_2.png" ) ) ;
+        JEEQuestionImage q1   = new JEEQuestionImage( new File( "P_9_PF_1_LCT_1_CA_1_1.png" ) ) ;
+
+        // Two contexts used to compare as less than each other
+        assertTrue( ctx1.compareTo( ctx2 ) < 0 ) ;
+        assertTrue( ctx2.compareTo( ctx1 ) > 0 ) ;
+        assertEquals( 0, ctx1.compareTo( ctx1 ) ) ;
+
+        // A context comes before its questions
+        assertTrue( ctx1.compareTo( q1 ) < 0 ) ;
+        assertTrue( q1.compareTo( ctx1 ) > 0 ) ;
+        assertTrue( q1.compareTo( ctx2 ) < 0 ) ;
+
+        // and snapshots with contexts go through the sort check
+        List<CatalogEntry> oldEntries = sorted(
+                entry( "P_9_PF_1_LCT_2.png", 10 ),
+                entry( "P_9_PF_1_LCT_1_CA_1_1.png", 20 ),
+                entry( "P_9_PF_1_LCT_1.png", 30 ) ) ;
+        List<CatalogEntry> newEntries = sorted(
+                entry( "P_9_PF_1_LCT_1.png", 30 ),
+                entry( "P_9_PF_1_LCT_2.png", 10 ) ) ;
+
+        CatalogDiffReport.Group group = diff( oldEntries, newEntries )
+                                            .getGroup( "P/9/PF/1/" ) ;
+        assertEquals( 1, group.getRemoved().size() ) ;
+        assertEquals( "P_9_PF_1_LCT_1_CA_1_1.png", group.getRemoved().get( 0 ).getPath() ) ;
+    }
+}
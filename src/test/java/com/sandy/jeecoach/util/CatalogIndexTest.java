@@ -0,0 +1,109 @@
+package com.sandy.jeecoach.util;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.File ;
+import java.io.FileOutputStream ;
+import java.io.IOException ;
+import java.util.ArrayList ;
+import java.util.List ;
+
+import org.junit.Rule ;
+import org.junit.Test ;
+import org.junit.rules.TemporaryFolder ;
+
+public class CatalogIndexTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder() ;
+
+    private static void createFile( File dir, String name, int size )
+        throws IOException {
+
+        dir.mkdirs() ;
+        try( FileOutputStream fos = new FileOutputStream( new File( dir, name ) ) ) {
+            fos.write( new byte[size] ) ;
+        }
+    }
+
+    private static List<String> paths( List<CatalogEntry> entries ) {
+        List<String> paths = new ArrayList<String>() ;
+        for( CatalogEntry entry : entries ) {
+            paths.add( entry.getPath() ) ;
+        }
+        return paths ;
+    }
+
+    @Test
+    public void scanWalksSubdirectories() throws IOException {
+
+        File root = tempFolder.newFolder( "catalog" ) ;
+        createFile( root, "P_9_PF_1_SCA_VSAT_2.png", 10 ) ;
+        createFile( new File( root, "physics" ), "P_9_PF_1_SCA_VSAT_1.png", 20 ) ;
+        createFile( new File( root, "physics/old" ), "P_9_PF_1_SCA_VSAT_3.png", 30 ) ;
+        createFile( new File( root, "physics" ), "notes.txt", 5 ) ;
+        createFile( new File( root, "physics" ), "scratch.png", 5 ) ;
+
+        List<CatalogEntry> entries = CatalogIndex.scan( root, true ) ;
+
+        List<String> expected = new ArrayList<String>() ;
+        expected.add( "physics/P_9_PF_1_SCA_VSAT_1.png" ) ;
+        expected.add( "P_9_PF_1_SCA_VSAT_2.png" ) ;
+        expected.add( "physics/old/P_9_PF_1_SCA_VSAT_3.png" ) ;
+        assertEquals( expected, paths( entries ) ) ;
+        assertEquals( 20, entries.get( 0 ).getSize() ) ;
+        assertTrue( entries.get( 0 ).hasChecksum() ) ;
+    }
+
+    @Test
+    public void sameNameInTwoDirectories() throws IOException {
+
+        File root = tempFolder.newFolder( "catalog" ) ;
+        createFile( new File( root, "a" ), "P_9_PF_1_SCA_VSAT_1.png", 10 ) ;
+        createFile( new File( root, "b" ), "P_9_PF_1_SCA_VSAT_1.png", 10 ) ;
+
+        File indexFile = tempFolder.newFile( "index" ) ;
+        CatalogIndex.write( CatalogIndex.scan( root, false ).iterator(), indexFile ) ;
+
+        List<CatalogEntry> read = new ArrayList<CatalogEntry>() ;
+        try( CatalogIndex.Reader reader = CatalogIndex.open( indexFile ) ) {
+            while( reader.hasNext() ) {
+                read.add( reader.next() ) ;
+            }
+        }
+
+        List<String> expected = new ArrayList<String>() ;
+        expected.add( "a/P_9_PF_1_SCA_VSAT_1.png" ) ;
+        expected.add( "b/P_9_PF_1_SCA_VSAT_1.png" ) ;
+        assertEquals( expected, paths( read ) ) ;
+
+        // Diffing the snapshot with itself must not trip the sort check
+        CatalogDiffReport report = new CatalogDiffReport() ;
+        new CatalogDiff( report ).diff( indexFile, indexFile ) ;
+        assertTrue( report.isEmpty() ) ;
+    }
+
+    @Test
+    public void moveBetweenDirectoriesIsRename() throws IOException {
+
+        File oldRoot = tempFolder.newFolder( "old" ) ;
+        createFile( new File( oldRoot, "inbox" ), "P_9_PF_1_SCA_VSAT_1.png", 10 ) ;
+        createFile( new File( oldRoot, "inbox" ), "P_9_PF_1_SCA_VSAT_2.png", 20 ) ;
+
+        File newRoot = tempFolder.newFolder( "new" ) ;
+        createFile( new File( newRoot, "inbox" ), "P_9_PF_1_SCA_VSAT_1.png", 10 ) ;
+        createFile( new File( newRoot, "done" ), "P_9_PF_1_SCA_VSAT_2.png", 20 ) ;
+
+        CatalogDiffReport report = new CatalogDiffReport() ;
+        new CatalogDiff( report ).diff( CatalogIndex.scan( oldRoot, true ).iterator(),
+                                        CatalogIndex.scan( newRoot, true ).iterator() ) ;
+
+        CatalogDiffReport.Group group = report.getGroup( "P/9/PF/1/" ) ;
+        assertEquals( 1, group.getRenamed().size() ) ;
+        assertEquals( "inbox/P_9_PF_1_SCA_VSAT_2.png -> done/P_9_PF_1_SCA_VSAT_2.png",
+                      group.getRenamed().get( 0 ).toString() ) ;
+        assertTrue( group.getAdded().isEmpty() ) ;
+        assertTrue( group.getRemoved().isEmpty() ) ;
+    }
+}
@@ -0,0 +1,186 @@
+package com.sandy.jeecoach.util;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.File ;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.List ;
+import java.util.Map ;
+import java.util.Random ;
+import java.util.TreeMap ;
+import java.util.concurrent.CountDownLatch ;
+
+import org.junit.Test ;
+
+/**
+ * Checks the catalog against a reference TreeMap of file name to image,
+ * which is how the catalog identifies its images.
+ */
+public class ConcurrentCatalogTest {
+
+    private static final String[] NAMES = {
+        "P_9_PF_%d_SCA_VSAT_%d.png",
+        "P_9_PF_%d_MCA_ETQ_%d(1).png",
+        "P_9_PF_%d_MCA_ETQ_%d(2).png",
+        "P_9_PF_%d_LCT_%d.png",
+        "P_9_PF_%d_LCT_%d_CA_2_1.png",
+        "C_10_MR_%d_NT_%d.png"
+    } ;
+
+    private static JEEQuestionImage randomImage( Random random ) {
+        String name = NAMES[random.nextInt( NAMES.length )] ;
+        return new JEEQuestionImage( new File( String.format( name,
+                                1 + random.nextInt( 4 ), 1 + random.nextInt( 15 ) ) ) ) ;
+    }
+
+    private static String fileName( JEEQuestionImage img ) {
+        return img.getImgFile().getName() ;
+    }
+
+    // Images are compared by file name, their equals compares the QID by
+    // identity.
+    private static List<String> names( Iterable<JEEQuestionImage> images ) {
+        List<String> names = new ArrayList<String>() ;
+        for( JEEQuestionImage img : images ) {
+            names.add( fileName( img ) ) ;
+        }
+        return names ;
+    }
+
+    private static void assertMatches( Map<String, JEEQuestionImage> reference,
+                                       ConcurrentCatalog.Snapshot snapshot ) {
+
+        List<JEEQuestionImage> expected =
+                        new ArrayList<JEEQuestionImage>( reference.values() ) ;
+        Collections.sort( expected, JEEQuestionImage.CATALOG_ORDER ) ;
+
+        assertEquals( expected.size(), snapshot.size() ) ;
+        assertEquals( names( expected ), names( snapshot ) ) ;
+
+        Map<String, List<JEEQuestionImage>> byQRef =
+                                new TreeMap<String, List<JEEQuestionImage>>() ;
+        Map<String, List<JEEQuestionImage>> byChapter =
+                                new TreeMap<String, List<JEEQuestionImage>>() ;
+        for( JEEQuestionImage img : expected ) {
+            add( byQRef, img.getQRef(), img ) ;
+            add( byChapter, img.getChapterQRef(), img ) ;
+        }
+
+        for( Map.Entry<String, List<JEEQuestionImage>> entry : byQRef.entrySet() ) {
+            assertEquals( names( entry.getValue() ),
+                          names( snapshot.getByQRef( entry.getKey() ) ) ) ;
+        }
+        for( Map.Entry<String, List<JEEQuestionImage>> entry : byChapter.entrySet() ) {
+            assertEquals( names( entry.getValue() ),
+                          names( snapshot.getChapter( entry.getKey() ) ) ) ;
+        }
+    }
+
+    private static void add( Map<String, List<JEEQuestionImage>> map,
+                             String key, JEEQuestionImage img ) {
+        List<JEEQuestionImage> list = map.get( key ) ;
+        if( list == null ) {
+            list = new ArrayList<JEEQuestionImage>() ;
+            map.put( key, list ) ;
+        }
+        list.add( img ) ;
+    }
+
+    @Test
+    public void randomOperationsMatchReference() {
+
+        Random random = new Random( 17 ) ;
+        ConcurrentCatalog catalog = new ConcurrentCatalog() ;
+        Map<String, JEEQuestionImage> reference = new TreeMap<String, JEEQuestionImage>() ;
+
+        for( int step=0; step<3000; step++ ) {
+
+            JEEQuestionImage img = randomImage( random ) ;
+            switch( random.nextInt( 4 ) ) {
+                case 0:
+                case 1:
+                    catalog.add( img ) ;
+                    reference.put( fileName( img ), img ) ;
+                    break ;
+
+                case 2:
+                    catalog.remove( img ) ;
+                    reference.remove( fileName( img ) ) ;
+                    break ;
+
+                case 3:
+                    JEEQuestionImage newImg = randomImage( random ) ;
+                    catalog.rename( img, newImg ) ;
+                    reference.remove( fileName( img ) ) ;
+                    reference.put( fileName( newImg ), newImg ) ;
+                    break ;
+            }
+
+            if( step % 50 == 0 ) {
+                assertMatches( reference, catalog.snapshot() ) ;
+            }
+        }
+        assertMatches( reference, catalog.snapshot() ) ;
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterWrites() {
+
+        Random random = new Random( 5 ) ;
+        ConcurrentCatalog catalog = new ConcurrentCatalog() ;
+        Map<String, JEEQuestionImage> reference = new TreeMap<String, JEEQuestionImage>() ;
+        for( int i=0; i<200; i++ ) {
+            JEEQuestionImage img = randomImage( random ) ;
+            catalog.add( img ) ;
+            reference.put( fileName( img ), img ) ;
+        }
+
+        ConcurrentCatalog.Snapshot snapshot = catalog.snapshot() ;
+        for( int i=0; i<200; i++ ) {
+            catalog.remove( randomImage( random ) ) ;
+            catalog.add( randomImage( random ) ) ;
+        }
+        assertMatches( reference, snapshot ) ;
+    }
+
+    @Test
+    public void concurrentWritersAllApplied() throws InterruptedException {
+
+        final ConcurrentCatalog catalog = new ConcurrentCatalog() ;
+        final int numWriters = 4 ;
+        final CountDownLatch done = new CountDownLatch( numWriters ) ;
+
+        // Each writer adds its own chapter and renames half of it
+        for( int w=0; w<numWriters; w++ ) {
+            final int chapter = w + 1 ;
+            new Thread( new Runnable() {
+                public void run() {
+                    for( int q=1; q<=100; q++ ) {
+                        catalog.add( new JEEQuestionImage( new File(
+                                "P_9_PF_" + chapter + "_SCA_VSAT_" + q + ".png" ) ) ) ;
+                    }
+                    for( int q=1; q<=100; q+=2 ) {
+                        catalog.rename(
+                            new JEEQuestionImage( new File( "P_9_PF_" + chapter + "_SCA_VSAT_" + q + ".png" ) ),
+                            new JEEQuestionImage( new File( "P_9_PF_" + chapter + "_SCA_SAT_" + q + ".png" ) ) ) ;
+                    }
+                    done.countDown() ;
+                }
+            } ).start() ;
+        }
+        done.await() ;
+
+        Map<String, JEEQuestionImage> reference = new TreeMap<String, JEEQuestionImage>() ;
+        for( int chapter=1; chapter<=numWriters; chapter++ ) {
+            for( int q=1; q<=100; q++ ) {
+                String section = ( q % 2 == 1 ) ? "SAT" : "VSAT" ;
+                String name = "P_9_PF_" + chapter + "_SCA_" + section + "_" + q + ".png" ;
+                reference.put( name, new JEEQuestionImage( new File( name ) ) ) ;
+            }
+        }
+        assertMatches( reference, catalog.snapshot() ) ;
+        assertTrue( catalog.getByQRef( "P/9/PF/1/SCA/VSAT/1" ).isEmpty() ) ;
+    }
+}
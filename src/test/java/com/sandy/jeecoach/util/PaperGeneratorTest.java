@@ -0,0 +1,173 @@
+package com.sandy.jeecoach.util;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.File ;
+import java.util.ArrayList ;
+import java.util.HashSet ;
+import java.util.List ;
+import java.util.Set ;
+
+import org.junit.After ;
+import org.junit.Test ;
+
+public class PaperGeneratorTest {
+
+    private static final int NUM_WORKERS = 4 ;
+
+    private PaperGenerator generator = null ;
+
+    @After
+    public void shutdown() {
+        if( generator != null ) {
+            generator.shutdown() ;
+        }
+    }
+
+    // SCA questions in the first sub section of CA are of level 2, 120s each
+    private static List<JEEQuestionImage> buildUniformCatalog( int numQuestions ) {
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        for( int q=1; q<=numQuestions; q++ ) {
+            images.add( image( "P_9_PF_1_SCA_CA_1_" + q + ".png" ) ) ;
+        }
+        return images ;
+    }
+
+    private static JEEQuestionImage image( String fileName ) {
+        return new JEEQuestionImage( new File( fileName ) ) ;
+    }
+
+    private static PaperProfile profile( int targetTime ) {
+        return new PaperProfile( targetTime, 0 ).setDifficultyWeight( 2, 1 ) ;
+    }
+
+    private static List<String> qRefs( List<TestPaper> papers ) {
+
+        List<String> qRefs = new ArrayList<String>() ;
+        for( TestPaper paper : papers ) {
+            for( PaperQuestion question : paper.getQuestions() ) {
+                qRefs.add( question.getQRef() ) ;
+            }
+        }
+        return qRefs ;
+    }
+
+    @Test
+    public void singlePaperUsesWholePool() {
+
+        generator = new PaperGenerator( buildUniformCatalog( 40 ), NUM_WORKERS ) ;
+        PaperGenerator.Pool pool = generator.preparePool( profile( 2400 ) ) ;
+
+        Set<String> used = new HashSet<String>() ;
+        for( int seed=0; seed<200; seed++ ) {
+            List<TestPaper> papers = generator.generate( pool, 1, seed ) ;
+            assertEquals( 1, papers.size() ) ;
+            assertEquals( 2400, papers.get( 0 ).getTotalTime() ) ;
+            used.addAll( qRefs( papers ) ) ;
+        }
+        assertEquals( 40, used.size() ) ;
+    }
+
+    @Test
+    public void noOverlapWithinBatch() {
+
+        generator = new PaperGenerator( buildUniformCatalog( 40 ), NUM_WORKERS ) ;
+        PaperGenerator.Pool pool = generator.preparePool( profile( 2400 ) ) ;
+
+        // The pool holds exactly two papers worth of questions
+        List<TestPaper> papers = generator.generate( pool, 2, 7 ) ;
+        assertEquals( 2, papers.size() ) ;
+
+        List<String> qRefs = qRefs( papers ) ;
+        assertEquals( 40, qRefs.size() ) ;
+        assertEquals( 40, new HashSet<String>( qRefs ).size() ) ;
+
+        // A bigger batch than the pool can fill stops short without reuse
+        papers = generator.generate( pool, 10, 7 ) ;
+        qRefs = qRefs( papers ) ;
+        assertEquals( qRefs.size(), new HashSet<String>( qRefs ).size() ) ;
+        assertTrue( papers.size() < 10 ) ;
+    }
+
+    @Test
+    public void sameSeedGivesSamePapers() {
+
+        generator = new PaperGenerator( buildUniformCatalog( 120 ), NUM_WORKERS ) ;
+        PaperGenerator.Pool pool = generator.preparePool( profile( 1200 ) ) ;
+
+        List<String> first = qRefs( generator.generate( pool, 6, 42 ) ) ;
+
+        // Other batches in between must not change what the seed gives
+        generator.generate( pool, 3, 1 ) ;
+        generator.generate( pool, 1, 2 ) ;
+
+        assertEquals( first, qRefs( generator.generate( pool, 6, 42 ) ) ) ;
+        assertEquals( first, qRefs( generator.generate( profile( 1200 ), 6, 42 ) ) ) ;
+    }
+
+    @Test
+    public void lctContextAndPartsStayAttached() {
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        for( int q=1; q<=30; q++ ) {
+            String name = "P_9_PF_1_SCA_CA_1_" + q ;
+            if( q % 5 == 0 ) {
+                images.add( image( name + "(1).png" ) ) ;
+                images.add( image( name + "(2).png" ) ) ;
+            }
+            else {
+                images.add( image( name + ".png" ) ) ;
+            }
+        }
+        for( int lct=1; lct<=3; lct++ ) {
+            images.add( image( "P_9_PF_1_LCT_" + lct + ".png" ) ) ;
+            for( int q=1; q<=4; q++ ) {
+                images.add( image( "P_9_PF_1_LCT_" + lct + "_CA_1_" + q + ".png" ) ) ;
+            }
+        }
+        // LCT questions without their context are never picked
+        images.add( image( "P_9_PF_1_LCT_9_CA_1_1.png" ) ) ;
+        images.add( image( "P_9_PF_1_LCT_9_CA_1_2.png" ) ) ;
+
+        generator = new PaperGenerator( images, NUM_WORKERS ) ;
+        List<TestPaper> papers = generator.generate( profile( 600 ), 8, 3 ) ;
+        assertFalse( papers.isEmpty() ) ;
+
+        int numLCT = 0 ;
+        int numMultipart = 0 ;
+        for( TestPaper paper : papers ) {
+            assertEquals( 600, paper.getTotalTime() ) ;
+            List<JEEQuestionImage> shown = paper.getImages() ;
+
+            for( PaperQuestion question : paper.getQuestions() ) {
+                JEEQuestionImage img = question.getQuestionImage() ;
+                if( img.isLCT() ) {
+                    numLCT++ ;
+                    assertFalse( img.getLCTCtxQRef().contains( "LCT/9" ) ) ;
+                    assertEquals( 1, question.getLctContextParts().size() ) ;
+
+                    JEEQuestionImage ctx = question.getLctContextParts().get( 0 ) ;
+                    assertTrue( ctx.isLCTContext() ) ;
+                    assertEquals( img.getLCTCtxQRef(), ctx.getLCTCtxQRef() ) ;
+                    assertTrue( shown.indexOf( ctx ) < shown.indexOf( img ) ) ;
+                }
+                else {
+                    assertTrue( question.getLctContextParts().isEmpty() ) ;
+                }
+
+                if( img.isPart() ) {
+                    numMultipart++ ;
+                    assertEquals( 2, question.getParts().size() ) ;
+                    assertEquals( 1, question.getParts().get( 0 ).getPartNumber() ) ;
+                    assertEquals( 2, question.getParts().get( 1 ).getPartNumber() ) ;
+                    assertEquals( question.getQRef(), question.getParts().get( 1 ).getQRef() ) ;
+                }
+            }
+        }
+        assertTrue( numLCT > 0 ) ;
+        assertTrue( numMultipart > 0 ) ;
+    }
+}
@@ -0,0 +1,246 @@
+package com.sandy.jeecoach.util;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNull ;
+import static org.junit.Assert.assertTrue ;
+
+import java.io.ByteArrayInputStream ;
+import java.io.ByteArrayOutputStream ;
+import java.io.EOFException ;
+import java.io.File ;
+import java.io.IOException ;
+import java.nio.ByteBuffer ;
+import java.nio.channels.Channels ;
+import java.util.ArrayList ;
+import java.util.Collections ;
+import java.util.List ;
+
+import org.junit.Test ;
+
+public class QuestionImageCodecTest {
+
+    private static final String[] FILE_NAMES = {
+        "P_6_PF_1_SCA_VSAT_1.png",
+        "P_6_PF_1_SCA_VSAT_2(1).png",
+        "P_6_PF_1_SCA_VSAT_2(2).png",
+        "P_6_PF_1_LCT_3.png",
+        "P_6_PF_1_LCT_3_CA_2_4.png",
+        "M_8_PF_12_MCA_AT_3_7.png",
+        "C_7_MR_3_NT_15(2).png"
+    } ;
+
+    private static final String[] DIRS = {
+        "/data/imgs/physics", "/data/imgs/chemistry"
+    } ;
+
+    private List<JEEQuestionImage> buildImages() {
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        for( int i=0; i<FILE_NAMES.length; i++ ) {
+            File dir = new File( DIRS[i % DIRS.length] ) ;
+            images.add( new JEEQuestionImage( new File( dir, FILE_NAMES[i] ) ) ) ;
+        }
+        return images ;
+    }
+
+    private void assertSameImages( List<JEEQuestionImage> expected,
+                                   List<JEEQuestionImage> actual ) {
+
+        assertEquals( expected.size(), actual.size() ) ;
+        for( int i=0; i<expected.size(); i++ ) {
+            JEEQuestionImage exp = expected.get( i ) ;
+            JEEQuestionImage act = actual.get( i ) ;
+
+            assertEquals( exp.getImgFile(), act.getImgFile() ) ;
+            assertEquals( exp.getQRef(), act.getQRef() ) ;
+            assertEquals( exp.getPartNumber(), act.getPartNumber() ) ;
+            assertEquals( exp.isLCTContext(), act.isLCTContext() ) ;
+            assertEquals( 0, exp.compareTo( act ) ) ;
+        }
+    }
+
+    @Test
+    public void bufferRoundTripWithPath() throws IOException {
+
+        List<JEEQuestionImage> images = buildImages() ;
+        ByteBuffer buffer = QuestionImageCodec.encode( images, true ) ;
+        assertSameImages( images, QuestionImageCodec.decode( buffer ) ) ;
+    }
+
+    @Test
+    public void bufferRoundTripWithoutPath() throws IOException {
+
+        List<JEEQuestionImage> images = buildImages() ;
+        ByteBuffer buffer = QuestionImageCodec.encode( images, false ) ;
+
+        QuestionImageCodec.Reader reader = new QuestionImageCodec.Reader( buffer ) ;
+        for( JEEQuestionImage img : images ) {
+            assertTrue( reader.next() ) ;
+            assertNull( reader.getParentPath() ) ;
+            assertEquals( img.getImgFile().getName(), reader.getFileName() ) ;
+        }
+        assertFalse( reader.next() ) ;
+    }
+
+    @Test
+    public void channelRoundTrip() throws IOException {
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        for( int i=0; i<20000; i++ ) {
+            images.addAll( buildImages() ) ;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream() ;
+        QuestionImageCodec.Writer writer = new QuestionImageCodec.Writer(
+                                        Channels.newChannel( bos ), true ) ;
+        writer.write( images ) ;
+        writer.flush() ;
+
+        QuestionImageCodec.Reader reader = new QuestionImageCodec.Reader(
+                Channels.newChannel( new ByteArrayInputStream( bos.toByteArray() ) ) ) ;
+
+        List<JEEQuestionImage> decoded = new ArrayList<JEEQuestionImage>() ;
+        while( reader.next() ) {
+            decoded.add( reader.toQuestionImage() ) ;
+        }
+        assertSameImages( images, decoded ) ;
+    }
+
+    @Test
+    public void lazyGetters() throws IOException {
+
+        List<JEEQuestionImage> images = buildImages() ;
+        QuestionImageCodec.Reader reader = new QuestionImageCodec.Reader(
+                            QuestionImageCodec.encode( images, true ) ) ;
+
+        // P_6_PF_1_SCA_VSAT_1.png - skipped without touching its fields
+        assertTrue( reader.next() ) ;
+
+        // P_6_PF_1_SCA_VSAT_2(1).png
+        assertTrue( reader.next() ) ;
+        assertEquals( "P", reader.getSubjectCode() ) ;
+        assertEquals( 6, reader.getStandard() ) ;
+        assertEquals( "PF", reader.getBookCode() ) ;
+        assertEquals( 1, reader.getChapterNum() ) ;
+        assertEquals( "SCA", reader.getQuestionType() ) ;
+        assertEquals( "VSAT", reader.getSectionId() ) ;
+        assertEquals( -1, reader.getSubSectionNumber() ) ;
+        assertEquals( 2, reader.getQuestionNumber() ) ;
+        assertTrue( reader.isPart() ) ;
+        assertEquals( 1, reader.getPartNumber() ) ;
+        assertEquals( DIRS[1], reader.getParentPath() ) ;
+
+        // P_6_PF_1_SCA_VSAT_2(2).png
+        assertTrue( reader.next() ) ;
+        assertEquals( 2, reader.getPartNumber() ) ;
+        assertEquals( DIRS[0], reader.getParentPath() ) ;
+
+        // P_6_PF_1_LCT_3.png
+        assertTrue( reader.next() ) ;
+        assertTrue( reader.isLCTContext() ) ;
+        assertEquals( 3, reader.getLctSequence() ) ;
+        assertFalse( reader.isPart() ) ;
+
+        // P_6_PF_1_LCT_3_CA_2_4.png
+        assertTrue( reader.next() ) ;
+        assertFalse( reader.isLCTContext() ) ;
+        assertEquals( 3, reader.getLctSequence() ) ;
+        assertEquals( "CA", reader.getSectionId() ) ;
+        assertEquals( 2, reader.getSubSectionNumber() ) ;
+        assertEquals( 4, reader.getQuestionNumber() ) ;
+
+        // M_8_PF_12_MCA_AT_3_7.png
+        assertTrue( reader.next() ) ;
+        assertEquals( "M_8_PF_12_MCA_AT_3_7.png", reader.getFileName() ) ;
+
+        // C_7_MR_3_NT_15(2).png
+        assertTrue( reader.next() ) ;
+        assertEquals( "MR", reader.getBookCode() ) ;
+        assertNull( reader.getSectionId() ) ;
+        assertEquals( 15, reader.getQuestionNumber() ) ;
+        assertEquals( 2, reader.getPartNumber() ) ;
+        assertEquals( "C_7_MR_3_NT_15(2).png", reader.getFileName() ) ;
+
+        assertFalse( reader.next() ) ;
+    }
+
+    @Test
+    public void pathsAreWrittenOncePerStream() {
+
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        for( int i=0; i<100; i++ ) {
+            images.addAll( buildImages() ) ;
+        }
+
+        int withPath    = QuestionImageCodec.encode( images, true ).remaining() ;
+        int withoutPath = QuestionImageCodec.encode( images, false ).remaining() ;
+
+        // The first record in each directory defines the path, the rest
+        // carry a one byte path id.
+        int pathDefs = 0 ;
+        for( String dir : DIRS ) {
+            pathDefs += dir.length() + 1 ;
+        }
+        int pathIds = images.size() - DIRS.length ;
+        assertEquals( withoutPath + pathIds + pathDefs, withPath ) ;
+    }
+
+    // A single record without a path, all of whose fields fit in a byte.
+    // The record is the last ten bytes: length, flags, subject, standard,
+    // book, chapter, question type, section, sub section and number.
+    private static ByteBuffer corrupt( int offset, int value ) {
+
+        ByteBuffer buffer = QuestionImageCodec.encode( Collections.singletonList(
+                new JEEQuestionImage( new File( "M_8_PF_12_MCA_AT_3_7.png" ) ) ), false ) ;
+        int recordStart = buffer.limit() - 10 ;
+        assertEquals( 9, buffer.get( recordStart ) ) ;
+
+        buffer.put( recordStart + offset, (byte)value ) ;
+        return buffer ;
+    }
+
+    @Test( expected = IOException.class )
+    public void rejectsUnknownSubjectId() throws IOException {
+
+        QuestionImageCodec.Reader reader = new QuestionImageCodec.Reader( corrupt( 2, 0x7F ) ) ;
+        assertTrue( reader.next() ) ;
+        reader.getSubjectCode() ;
+    }
+
+    @Test( expected = IOException.class )
+    public void rejectsUnknownSectionId() throws IOException {
+
+        QuestionImageCodec.Reader reader = new QuestionImageCodec.Reader( corrupt( 7, 0x7F ) ) ;
+        assertTrue( reader.next() ) ;
+        reader.toQuestionImage() ;
+    }
+
+    @Test( expected = EOFException.class )
+    public void rejectsFieldsPastRecordEnd() throws IOException {
+
+        QuestionImageCodec.Reader reader = new QuestionImageCodec.Reader( corrupt( 0, 4 ) ) ;
+        assertTrue( reader.next() ) ;
+        assertEquals( "M", reader.getSubjectCode() ) ;
+        reader.getFileName() ;
+    }
+
+    @Test( expected = IOException.class )
+    public void rejectsEmptyRecord() throws IOException {
+
+        QuestionImageCodec.Reader reader = new QuestionImageCodec.Reader( corrupt( 0, 0 ) ) ;
+        reader.next() ;
+    }
+
+    @Test( expected = EOFException.class )
+    public void rejectsRecordPastStreamEnd() throws IOException {
+
+        QuestionImageCodec.Reader reader = new QuestionImageCodec.Reader( corrupt( 0, 0x7F ) ) ;
+        reader.next() ;
+    }
+
+    @Test( expected = IOException.class )
+    public void rejectsForeignStream() throws IOException {
+        new QuestionImageCodec.Reader( ByteBuffer.wrap( new byte[]{ 1, 2, 3, 4, 5 } ) ) ;
+    }
+}
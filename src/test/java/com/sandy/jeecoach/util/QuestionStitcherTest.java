@@ -0,0 +1,149 @@
+package com.sandy.jeecoach.util;
+
+import static org.junit.Assert.assertEquals ;
+import static org.junit.Assert.assertFalse ;
+import static org.junit.Assert.assertNotEquals ;
+import static org.junit.Assert.assertTrue ;
+
+import java.awt.image.BufferedImage ;
+import java.io.File ;
+import java.io.IOException ;
+import java.util.ArrayList ;
+import java.util.List ;
+import java.util.concurrent.RejectedExecutionException ;
+
+import javax.imageio.ImageIO ;
+
+import org.junit.After ;
+import org.junit.Before ;
+import org.junit.Rule ;
+import org.junit.Test ;
+import org.junit.rules.TemporaryFolder ;
+
+public class QuestionStitcherTest {
+
+    private static final int BG_COLOR = 0xFFFFFFFF ;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder() ;
+
+    private File imgDir = null ;
+    private File cacheDir = null ;
+    private QuestionStitcher stitcher = null ;
+
+    @Before
+    public void setUp() throws IOException {
+        imgDir   = tempFolder.newFolder( "images" ) ;
+        cacheDir = tempFolder.newFolder( "cache" ) ;
+        stitcher = new QuestionStitcher( cacheDir, 2 ) ;
+    }
+
+    @After
+    public void tearDown() {
+        stitcher.shutdown() ;
+    }
+
+    // A pattern which differs by pixel and by part, with some transparency
+    private static int pixel( int part, int x, int y ) {
+        return ( ( 0x80 + 0x40*( ( x + y ) % 2 ) ) << 24 ) |
+               ( ( x*7 + part*50 ) & 0xFF ) << 16 |
+               ( ( y*5 ) & 0xFF ) << 8 |
+               ( part*90 & 0xFF ) ;
+    }
+
+    private BufferedImage writePart( String name, int part, int width, int height )
+        throws IOException {
+
+        BufferedImage img = new BufferedImage( width, height,
+                                               BufferedImage.TYPE_INT_ARGB ) ;
+        for( int y=0; y<height; y++ ) {
+            for( int x=0; x<width; x++ ) {
+                img.setRGB( x, y, pixel( part, x, y ) ) ;
+            }
+        }
+        ImageIO.write( img, "png", new File( imgDir, name ) ) ;
+        return img ;
+    }
+
+    private List<JEEQuestionImage> parts( String... names ) {
+        List<JEEQuestionImage> images = new ArrayList<JEEQuestionImage>() ;
+        for( String name : names ) {
+            images.add( new JEEQuestionImage( new File( imgDir, name ) ) ) ;
+        }
+        return JEEQuestionImage.groupParts( images ).values().iterator().next() ;
+    }
+
+    @Test
+    public void stitchesPartsOfDifferentWidths() throws IOException {
+
+        BufferedImage part1 = writePart( "P_9_PF_1_SCA_VSAT_1(1).png", 1, 40, 30 ) ;
+        BufferedImage part2 = writePart( "P_9_PF_1_SCA_VSAT_1(2).png", 2, 65, 20 ) ;
+
+        // Given out of order, grouping sorts them by part number
+        File stitched = stitcher.stitchAndWait(
+                parts( "P_9_PF_1_SCA_VSAT_1(2).png", "P_9_PF_1_SCA_VSAT_1(1).png" ) ) ;
+
+        BufferedImage img = ImageIO.read( stitched ) ;
+        assertEquals( 65, img.getWidth() ) ;
+        assertEquals( 50, img.getHeight() ) ;
+
+        for( int y=0; y<30; y++ ) {
+            for( int x=0; x<65; x++ ) {
+                int expected = x < 40 ? part1.getRGB( x, y ) : BG_COLOR ;
+                assertEquals( "(" + x + "," + y + ")", expected, img.getRGB( x, y ) ) ;
+            }
+        }
+        for( int y=0; y<20; y++ ) {
+            for( int x=0; x<65; x++ ) {
+                assertEquals( "(" + x + "," + ( y+30 ) + ")",
+                              part2.getRGB( x, y ), img.getRGB( x, y+30 ) ) ;
+            }
+        }
+    }
+
+    @Test
+    public void singlePartIsNotStitched() throws IOException {
+
+        writePart( "P_9_PF_1_SCA_VSAT_2.png", 1, 10, 10 ) ;
+        File file = stitcher.stitchAndWait( parts( "P_9_PF_1_SCA_VSAT_2.png" ) ) ;
+
+        assertEquals( new File( imgDir, "P_9_PF_1_SCA_VSAT_2.png" ), file ) ;
+        assertEquals( 0, cacheDir.list().length ) ;
+    }
+
+    @Test
+    public void modifiedPartEvictsOldEntry() throws IOException {
+
+        writePart( "P_9_PF_1_SCA_VSAT_1(1).png", 1, 20, 10 ) ;
+        writePart( "P_9_PF_1_SCA_VSAT_1(2).png", 2, 20, 10 ) ;
+        List<JEEQuestionImage> parts = parts( "P_9_PF_1_SCA_VSAT_1(1).png",
+                                              "P_9_PF_1_SCA_VSAT_1(2).png" ) ;
+
+        File first = stitcher.stitchAndWait( parts ) ;
+        assertEquals( first, stitcher.stitchAndWait( parts ) ) ;
+
+        File part2 = new File( imgDir, "P_9_PF_1_SCA_VSAT_1(2).png" ) ;
+        writePart( part2.getName(), 3, 20, 15 ) ;
+        assertTrue( part2.setLastModified( first.lastModified() + 10000 ) ) ;
+
+        File second = stitcher.stitchAndWait( parts ) ;
+        assertNotEquals( first, second ) ;
+        assertFalse( first.exists() ) ;
+        assertEquals( 25, ImageIO.read( second ).getHeight() ) ;
+
+        String[] cached = cacheDir.list() ;
+        assertEquals( 1, cached.length ) ;
+        assertEquals( second.getName(), cached[0] ) ;
+    }
+
+    @Test( expected = RejectedExecutionException.class )
+    public void rejectsAfterShutdown() throws IOException {
+
+        writePart( "P_9_PF_1_SCA_VSAT_1(1).png", 1, 20, 10 ) ;
+        writePart( "P_9_PF_1_SCA_VSAT_1(2).png", 2, 20, 10 ) ;
+
+        stitcher.shutdown() ;
+        stitcher.stitch( parts( "P_9_PF_1_SCA_VSAT_1(1).png",
+                                "P_9_PF_1_SCA_VSAT_1(2).png" ) ) ;
+    }
+}